@@ -1,46 +1,91 @@
 package com.davidburgosprieto.mynavigationstatusbar;
 
+import android.animation.ValueAnimator;
 import android.content.Context;
-import android.content.res.ColorStateList;
+import android.content.res.Configuration;
 import android.content.res.Resources;
-import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.drawable.GradientDrawable;
+import android.graphics.RectF;
+import android.graphics.Region;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
+import android.support.v4.view.ViewCompat;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.support.v4.widget.ExploreByTouchHelper;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.accessibility.AccessibilityEvent;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class NavigationStatusBar extends LinearLayout {
 
-    public final int MAX_ELEMENTS = 8;
-    public final int SHAPE_DRAWABLE_OVAL = 0;
-    public final int SHAPE_DRAWABLE_RECTANGLE = 1;
-    public final int SHAPE_STYLE_SOLID = 0;
-    public final int SHAPE_STYLE_STROKE = 1;
+    // Maximum number of elements of the inflated layout. Bars with more elements than this are
+    // always drawn in canvas mode, showing a window of, at most, this number of elements.
+    public static final int MAX_ELEMENTS = 8;
+    public static final int SHAPE_DRAWABLE_OVAL = 0;
+    public static final int SHAPE_DRAWABLE_RECTANGLE = 1;
+    public static final int SHAPE_STYLE_SOLID = 0;
+    public static final int SHAPE_STYLE_STROKE = 1;
+    public static final int RENDER_MODE_VIEWS = 0;
+    public static final int RENDER_MODE_CANVAS = 1;
 
-    private final int STATE_NOT_SELECTED = 0;
-    private final int STATE_SELECTED = 1;
-    private final int STATE_NOT_CLICKABLE = 2;
+    private static final int STATE_NOT_SELECTED = StepGeometry.STATE_NOT_SELECTED;
+    private static final int STATE_SELECTED = StepGeometry.STATE_SELECTED;
+    private static final int STATE_NOT_CLICKABLE = StepGeometry.STATE_NOT_CLICKABLE;
+
+    // Value of the fields of a pending update that must be left unchanged.
+    private static final int UNCHANGED = -1;
+
+    // Raw bits of the progress of a bar not showing any progress.
+    private static final int NO_PROGRESS = Float.floatToIntBits(Float.NaN);
+
+    // Ids of the views of every element into the inflated layout, indexed by element.
+    static final int[] ELEMENT_IDS = {R.id.element_1, R.id.element_2, R.id.element_3,
+            R.id.element_4, R.id.element_5, R.id.element_6, R.id.element_7, R.id.element_8};
+    static final int[] TEXT_IDS = {R.id.text_1, R.id.text_2, R.id.text_3, R.id.text_4,
+            R.id.text_5, R.id.text_6, R.id.text_7, R.id.text_8};
+    static final int[] SHAPE_IDS = {R.id.shape_1, R.id.shape_2, R.id.shape_3,
+            R.id.shape_4, R.id.shape_5, R.id.shape_6, R.id.shape_7, R.id.shape_8};
+    static final int[] LEFT_LINE_IDS = {R.id.left_line_1, R.id.left_line_2,
+            R.id.left_line_3, R.id.left_line_4, R.id.left_line_5, R.id.left_line_6,
+            R.id.left_line_7, R.id.left_line_8};
+    static final int[] RIGHT_LINE_IDS = {R.id.right_line_1, R.id.right_line_2,
+            R.id.right_line_3, R.id.right_line_4, R.id.right_line_5, R.id.right_line_6,
+            R.id.right_line_7, R.id.right_line_8};
 
     /* ************************ */
     /* Private member variables */
     /* ************************ */
 
-    private Paint mPaint;
+    private Paint mPaint, mShapePaint, mLinePaint, mTextPaint;
     private Rect mRect;
+    private RectF mShapeRect;
+    private StepGeometry mGeometry;
     private int mBgColor, mTotal, mClickables, mSelected, mSelectedBgColor, mSelectedInnerTxtSize,
             mSelectedOuterTxtSize, mSelectedInnerTxtColor, mSelectedOuterTxtColor,
             mSelectedShapeStyle, mSelectedShapeSize, mUnselectedBgColor, mUnselectedInnerTxtSize,
@@ -48,30 +93,390 @@ public class NavigationStatusBar extends LinearLayout {
             mUnselectedShapeStyle, mUnselectedShapeSize, mUnselectedLinesColor, mNotClickableBgColor,
             mNotClickableInnerTxtSize, mNotClickableOuterTxtSize, mNotClickableInnerTxtColor,
             mNotClickableOuterTxtColor, mNotClickableShapeStyle, mNotClickableShapeSize,
-            mNotClickableLinesColor, mShapesDrawable, mLinesHeight;
-    private ColorStateList mUnselectedTintColorStateList, mSelectedTintColorStateList,
-            mNotClickableTintColorStateList;
+            mNotClickableLinesColor, mShapesDrawable, mLinesHeight, mRenderMode, mLinesHeightPx,
+            mVisibleElements, mFirstVisible, mSelectionAnimationDuration, mAnimatedFrom,
+            mAnimatedTo, mProgressColor;
+    private float mSelectionFraction = 1f;
+    private ValueAnimator mSelectionAnimator;
+    private int mRequestedVisibleElements;
+    private Handler mMainHandler;
+    private final AtomicReference<PendingUpdate> mPendingUpdate = new AtomicReference<>();
+    private final AtomicBoolean mUpdateScheduled = new AtomicBoolean();
+    private final AtomicBoolean mRedrawPending = new AtomicBoolean();
+    private final AtomicInteger mPublishedProgress = new AtomicInteger(NO_PROGRESS);
+    private float mProgress = Float.NaN;
+    private boolean mProgressPolling;
+    private float mAppliedDensity, mAppliedScaledDensity;
+    private volatile NavigationStatusBarScheduler mScheduler;
+    private int mSchedulerOrder;
+    private MetricsCounters mMetrics;
+    private float mStepsLeft, mStepWidth, mStepsCenterY;
+    private int mTouchedElement = -1;
+    private boolean mInteractionPending;
+    private int[] mStateBgColors, mStateLinesColors, mStateInnerTxtColors, mStateOuterTxtColors,
+            mStateShapeStyles, mStateShapeSizes;
+    private float[] mStateInnerTxtSizes, mStateOuterTxtSizes;
     private ArrayList<RelativeLayout> mElements;
     private ArrayList<TextView> mShapes, mOuterNumbers;
     private ArrayList<View> mLeftLines, mRightLines;
+    private AppliedItemStyle[] mAppliedItemStyles;
+    private StepLabelCache mLabelCache;
+    private NavigationStatusBarStyle mStyle;
+    private SnapshotCache.Key mSnapshotKey, mLastDrawnKey;
     private Resources mRes;
     private OnInteractionListener mListener;
+    private StepAccessibilityHelper mAccessibilityHelper;
+
+    /**
+     * Changes published through edit() and not applied yet. Instances are immutable, so they can be
+     * safely merged and swapped from any thread.
+     */
+    private static class PendingUpdate {
+        final int total, clickables, selected;
+
+        PendingUpdate(int total, int clickables, int selected) {
+            this.total = total;
+            this.clickables = clickables;
+            this.selected = selected;
+        }
+
+        PendingUpdate merge(int total, int clickables, int selected) {
+            return new PendingUpdate(total != UNCHANGED ? total : this.total,
+                    clickables != UNCHANGED ? clickables : this.clickables,
+                    selected != UNCHANGED ? selected : this.selected);
+        }
+    }
+
+    private final Choreographer.FrameCallback mUpdateFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            applyScheduledChanges();
+        }
+    };
+
+    private final Runnable mScheduleUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mUpdateFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mProgressFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (pollProgress()) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
+    private final Runnable mStartProgressPollingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startProgressPolling();
+        }
+    };
 
-    private int[][] mStates = new int[][]{
-            new int[]{android.R.attr.state_enabled}, // enabled
-            new int[]{-android.R.attr.state_enabled}, // disabled
-            new int[]{-android.R.attr.state_checked}, // unchecked
-            new int[]{android.R.attr.state_pressed}  // pressed
+    private final Choreographer.FrameCallback mInteractionFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mInteractionPending = false;
+            if (mListener != null) {
+                mListener.onInteraction(mSelected);
+            }
+        }
     };
 
+    /**
+     * Counters behind getMetrics(). They only exist while metrics are enabled, so a disabled bar
+     * only pays a null check on each counted event.
+     */
+    private static class MetricsCounters {
+        long invalidations, layoutRequests, itemLayoutRequests, draws, drawTimeNanos,
+                maxDrawTimeNanos, stateTransitions;
+    }
+
+    /**
+     * Style values last applied to the views of an element by setItem(), so that only the values
+     * that actually change are applied again, and the backgrounds of its shape, indexed by state.
+     * Backgrounds are created the first time the element takes each state and reused from then on.
+     */
+    private static class AppliedItemStyle {
+        boolean applied;
+        int innerTxtSize, innerTxtColor, outerTxtSize, outerTxtColor, shapeSize, shapeStyle,
+                linesColor, bgColor;
+        final Drawable[] backgrounds = new Drawable[3];
+        ShapeTransitionDrawable transition;
+    }
+
+    /**
+     * Accessibility of the elements, which have no views of their own in canvas mode and no click
+     * listeners in any render mode. Every visible element is exposed as a virtual view, whose id is
+     * the 0-based index of the element, placed from the same cached positions that touches are
+     * mapped with. Clicking a clickable element selects it, as tapping it does.
+     */
+    private class StepAccessibilityHelper extends ExploreByTouchHelper {
+        private final Rect mBounds = new Rect();
+
+        StepAccessibilityHelper() {
+            super(NavigationStatusBar.this);
+        }
+
+        @Override
+        protected int getVirtualViewAt(float x, float y) {
+            int column = getColumnAt(x);
+            if (column < 0 || column >= mVisibleElements || y < 0 || y >= getHeight()) {
+                return INVALID_ID;
+            }
+            return getFirstElement() + column;
+        }
+
+        @Override
+        protected void getVisibleVirtualViews(List<Integer> virtualViewIds) {
+            if (mStepWidth <= 0) {
+                return;
+            }
+            for (int column = 0; column < mVisibleElements; column++) {
+                virtualViewIds.add(getFirstElement() + column);
+            }
+        }
+
+        @Override
+        protected void onPopulateNodeForVirtualView(int virtualViewId, AccessibilityNodeInfoCompat node) {
+            int i = virtualViewId;
+            node.setContentDescription(mLabelCache.hasCustomLabel(i) ?
+                    mRes.getString(R.string.navigation_status_bar_labelled_step,
+                            mLabelCache.getLabel(i), i + 1, mTotal) :
+                    mRes.getString(R.string.navigation_status_bar_step, i + 1, mTotal));
+            getElementBounds(i, mBounds);
+            node.setBoundsInParent(mBounds);
+            node.setSelected(i == mSelected - 1);
+            node.setEnabled(i < mClickables);
+            if (i < mClickables) {
+                node.setClickable(true);
+                node.addAction(AccessibilityNodeInfoCompat.ACTION_CLICK);
+            }
+        }
+
+        @Override
+        protected boolean onPerformActionForVirtualView(int virtualViewId, int action,
+                                                        @Nullable Bundle arguments) {
+            if (action != AccessibilityNodeInfoCompat.ACTION_CLICK || virtualViewId < 0 ||
+                    virtualViewId >= mClickables) {
+                return false;
+            }
+            selectTouchedItem(virtualViewId, true);
+            notifyInteraction();
+            sendEventForVirtualView(virtualViewId, AccessibilityEvent.TYPE_VIEW_CLICKED);
+            return true;
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (mRenderMode != RENDER_MODE_CANVAS) {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+            return;
+        }
+
+        // There are no child views to measure in canvas mode, so the desired size is the size of
+        // the outer texts row plus the size of the shapes row.
+        float shapesHeight = getShapesHeight();
+        int desiredWidth = getPaddingLeft() + getPaddingRight() +
+                (int) Math.ceil(shapesHeight * mVisibleElements);
+        int desiredHeight = getPaddingTop() + getPaddingBottom() +
+                (int) Math.ceil(getOuterTextsHeight() + shapesHeight);
+        setMeasuredDimension(resolveSize(Math.max(desiredWidth, getSuggestedMinimumWidth()), widthMeasureSpec),
+                resolveSize(Math.max(desiredHeight, getSuggestedMinimumHeight()), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        updateStepPositions();
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mRenderMode == RENDER_MODE_CANVAS && mSnapshotKey != null && drawSnapshot(canvas)) {
+            return;
+        }
+        super.draw(canvas);
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        // In views mode the bar draws nothing itself, so without a background the framework skips
+        // draw() and only calls this method: snapshots replace the drawing of the child views.
+        if (mRenderMode != RENDER_MODE_CANVAS && mSnapshotKey != null && drawSnapshot(canvas)) {
+            return;
+        }
+        super.dispatchDraw(canvas);
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = mMetrics != null ? System.nanoTime() : 0;
+
         super.onDraw(canvas);
         mRect.left = 0;
         mRect.right = getWidth();
         mRect.top = 0;
         mRect.bottom = getHeight();
-        canvas.drawRect(mRect, mPaint);
+
+        // The background is not painted under opaque lines and shapes, as they are drawn over it
+        // right after, so that every pixel of the bar is painted only once.
+        if (Color.alpha(mBgColor) != 0) {
+            int saveCount = canvas.save();
+            if (mRenderMode == RENDER_MODE_CANVAS) {
+                clipOutOpaqueElements(canvas);
+            }
+            canvas.drawRect(mRect, mPaint);
+            canvas.restoreToCount(saveCount);
+        }
+
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            drawElements(canvas);
+        }
+
+        if (mMetrics != null) {
+            long duration = System.nanoTime() - start;
+            mMetrics.draws++;
+            mMetrics.drawTimeNanos += duration;
+            mMetrics.maxDrawTimeNanos = Math.max(mMetrics.maxDrawTimeNanos, duration);
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        super.invalidate();
+        // This method is called from the constructor of View, before mMetrics is initialised.
+        if (mMetrics != null) {
+            mMetrics.invalidations++;
+        }
+    }
+
+    @Override
+    public void requestLayout() {
+        super.requestLayout();
+        // This method is called from the constructor of View, before mMetrics is initialised. Layout
+        // requests of child views reach this method too.
+        if (mMetrics != null) {
+            mMetrics.layoutRequests++;
+        }
+    }
+
+    @Override
+    public boolean isOpaque() {
+        // In canvas mode the whole bar is covered by the background color, so views behind it don't
+        // need to be drawn if that color is opaque.
+        if (mRenderMode == RENDER_MODE_CANVAS && Color.alpha(mBgColor) == 0xFF && getAlpha() >= 1f) {
+            return true;
+        }
+        return super.isOpaque();
+    }
+
+    @Override
+    public boolean hasOverlappingRendering() {
+        // In canvas mode, fading the bar doesn't need an offscreen layer if no pixel is painted
+        // twice. See hasOverlappingElements(). A background drawable of the view, such as a
+        // selector or a ripple, is painted under every element, so it always overlaps them.
+        if (mRenderMode == RENDER_MODE_CANVAS && mStateInnerTxtSizes != null && getBackground() == null) {
+            return hasOverlappingElements();
+        }
+        return super.hasOverlappingRendering();
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        updateDimensions();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // Progress is not read while the bar is detached, so pick up the last published one,
+        // including a progress cleared meanwhile.
+        if (mPublishedProgress.get() != NO_PROGRESS || !Float.isNaN(mProgress)) {
+            startProgressPolling();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        endSelectionTransition();
+        if (mInteractionPending) {
+            Choreographer.getInstance().removeFrameCallback(mInteractionFrameCallback);
+            mInteractionPending = false;
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        // Elements have no listeners of their own in any render mode: touched elements are found
+        // from the touch coordinates and the cached positions of the elements.
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                // Only touches starting on a clickable shape are handled.
+                mTouchedElement = mListener != null ? getElementAt(event.getX(), event.getY()) : -1;
+                return mTouchedElement >= 0;
+
+            case MotionEvent.ACTION_MOVE:
+                // Dragging scrubs the selection across the clickable elements. The listener is
+                // notified at most once per frame.
+                if (mTouchedElement >= 0) {
+                    int index = getScrubbedElementAt(event.getX());
+                    if (index != mSelected - 1) {
+                        selectTouchedItem(index, false);
+                        if (!mInteractionPending) {
+                            mInteractionPending = true;
+                            Choreographer.getInstance().postFrameCallback(mInteractionFrameCallback);
+                        }
+                    }
+                }
+                return true;
+
+            case MotionEvent.ACTION_UP:
+                if (mTouchedElement >= 0) {
+                    mTouchedElement = -1;
+                    selectTouchedItem(getScrubbedElementAt(event.getX()), true);
+                    performClick();
+                    notifyInteraction();
+                }
+                return true;
+
+            case MotionEvent.ACTION_CANCEL:
+                if (mTouchedElement >= 0) {
+                    mTouchedElement = -1;
+                    if (mRenderMode == RENDER_MODE_CANVAS) {
+                        centerWindowOnSelected();
+                        invalidate();
+                    }
+                }
+                return true;
+
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    protected boolean dispatchHoverEvent(MotionEvent event) {
+        // Hovering with touch exploration reaches the virtual views of the elements.
+        return mAccessibilityHelper.dispatchHoverEvent(event) || super.dispatchHoverEvent(event);
+    }
+
+    @Override
+    public boolean dispatchKeyEvent(KeyEvent event) {
+        return mAccessibilityHelper.dispatchKeyEvent(event) || super.dispatchKeyEvent(event);
+    }
+
+    @Override
+    protected void onFocusChanged(boolean gainFocus, int direction, @Nullable Rect previouslyFocusedRect) {
+        super.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
+        mAccessibilityHelper.onFocusChanged(gainFocus, direction, previouslyFocusedRect);
     }
 
     /* ************** */
@@ -87,6 +492,49 @@ public class NavigationStatusBar extends LinearLayout {
         void onInteraction(int buttonIndex);
     }
 
+    /**
+     * Snapshot of the rendering metrics of a NavigationStatusBar, counted since metrics were enabled
+     * or last reset. See setMetricsEnabled().
+     */
+    public static final class Metrics {
+        /**
+         * Number of invalidations of the bar, including the ones posted from other threads.
+         */
+        public final long invalidations;
+
+        /**
+         * Number of layout requests reaching the bar, including the ones of its child views.
+         */
+        public final long layoutRequests;
+
+        /**
+         * Number of element restyles in setItem() that changed a shape size, a text or a text size,
+         * and so requested a layout pass.
+         */
+        public final long itemLayoutRequests;
+
+        /**
+         * Number of onDraw() calls, their total duration and the duration of the slowest one.
+         */
+        public final long draws, drawTimeNanos, maxDrawTimeNanos;
+
+        /**
+         * Number of changes of the selected element, the number of elements or the number of
+         * clickable elements.
+         */
+        public final long stateTransitions;
+
+        private Metrics(MetricsCounters counters) {
+            invalidations = counters.invalidations;
+            layoutRequests = counters.layoutRequests;
+            itemLayoutRequests = counters.itemLayoutRequests;
+            draws = counters.draws;
+            drawTimeNanos = counters.drawTimeNanos;
+            maxDrawTimeNanos = counters.maxDrawTimeNanos;
+            stateTransitions = counters.stateTransitions;
+        }
+    }
+
     public NavigationStatusBar(Context context) {
         super(context);
         init(null, context);
@@ -108,21 +556,248 @@ public class NavigationStatusBar extends LinearLayout {
         init(attrs, context);
     }
 
+    /**
+     * Select an element. This method can be called from any thread: the change is applied in the
+     * next frame, together with any other change requested through edit().
+     *
+     * @param index is the 1-based index of the element to select.
+     */
     public void setSelectedElement(int index) {
-        mSelected = index;
+        edit().setSelectedElement(index).apply();
+    }
+
+    /**
+     * Start a batch of changes of the number of elements, the number of clickable elements and the
+     * selected element. This method and the returned Editor can be used from any thread.
+     *
+     * @return a new Editor, whose changes are applied all at once by calling Editor.apply().
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Batch of changes of a NavigationStatusBar. Changes are published atomically by apply() and
+     * applied on the main thread in the next frame. All batches applied before that frame are
+     * merged, so a burst of changes costs a single update of the bar.
+     */
+    public final class Editor {
+        private int mEditTotal = UNCHANGED, mEditClickables = UNCHANGED, mEditSelected = UNCHANGED;
+
+        private Editor() {
+        }
+
+        public Editor setTotalElements(int total) {
+            mEditTotal = total;
+            return this;
+        }
+
+        public Editor setClickableElements(int clickables) {
+            mEditClickables = clickables;
+            return this;
+        }
+
+        public Editor setSelectedElement(int selected) {
+            mEditSelected = selected;
+            return this;
+        }
+
+        public void apply() {
+            publishUpdate(mEditTotal, mEditClickables, mEditSelected);
+        }
+    }
+
+    /**
+     * Bind the bar to a state, typically from RecyclerView.Adapter.onBindViewHolder(). The state is
+     * applied immediately and without transitions, restyling only what differs from the current
+     * state, so binding a recycled bar doesn't inflate or allocate anything. Any change published
+     * through edit() and not applied yet is discarded. Must be called from the main thread.
+     * <p>
+     * Bars switched to canvas mode because of a state with more than MAX_ELEMENTS elements remain
+     * in canvas mode, so that binding never inflates the layout again.
+     *
+     * @param state is the state to show.
+     */
+    public void bind(NavigationStatusBarState state) {
+        mPendingUpdate.set(null);
+        applyUpdate(state.getTotalElements(), state.getClickableElements(),
+                state.getSelectedElement(), false);
+
+        // Labels are compared by content, as equal states usually hold different arrays.
+        String[] labels = state.getLabelsArray();
+        if (!Arrays.equals(labels, mLabelCache.getLabels())) {
+            setLabels(labels);
+        }
+    }
+
+    /**
+     * Show a continuous progress along the bar: shapes reached by the progress and the part of the
+     * lines up to it are drawn with the progress_color attribute. Progress is only drawn in canvas
+     * mode, so bars drawn in views mode switch to canvas mode when the first progress is applied.
+     * <p>
+     * This method can be called from any thread, as often as required. The value is swapped into a
+     * lock-free slot that the main thread reads once per frame while a progress is shown, so a
+     * burst of values costs at most one redraw per frame, showing the last one. Only the first
+     * value set from another thread while no progress is shown posts a message to wake the main
+     * thread up, which briefly takes the lock of its message queue; every other value is just the
+     * atomic swap.
+     *
+     * @param progress is the progress from 0 (the first element) to 1 (the last element).
+     */
+    public void setProgress(float progress) {
+        publishProgress(Float.floatToIntBits(Math.max(0f, Math.min(progress, 1f))));
+    }
+
+    /**
+     * Stop showing the progress set through setProgress(). This method can be called from any
+     * thread.
+     */
+    public void clearProgress() {
+        publishProgress(NO_PROGRESS);
+    }
+
+    /**
+     * Set custom labels for the elements, instead of their numbers. Labels are shown as inner and
+     * outer texts, depending on the text sizes of each state.
+     *
+     * @param labels is the array of labels, or null to show element numbers. Elements beyond the
+     *               length of this array show their numbers. The array is copied, so changing it
+     *               later has no effect.
+     */
+    public void setLabels(@Nullable String[] labels) {
+        // Labels are hashed once and shared with snapshot keys, so they must not change.
+        mLabelCache.setLabels(labels != null ? labels.clone() : null);
+        if (mRenderMode != RENDER_MODE_CANVAS && mShapes != null) {
+            for (int i = 0; i < mTotal; i++) {
+                // Only texts already shown must be updated; setItem() sets the others when needed.
+                AppliedItemStyle applied = mAppliedItemStyles[i];
+                if (applied.applied && applied.innerTxtSize > 0) {
+                    mShapes.get(i).setText(mLabelCache.getLabel(i));
+                }
+                if (applied.applied && applied.outerTxtSize > 0) {
+                    mOuterNumbers.get(i).setText(mLabelCache.getLabel(i));
+                }
+            }
+        }
+        mAccessibilityHelper.invalidateRoot();
         reDraw();
     }
 
+    /**
+     * Scroll the window of visible elements so that the given element is as centered as possible.
+     * Only bars drawn in canvas mode can have more elements than visible elements.
+     *
+     * @param index is the 1-based index of the element to scroll to.
+     */
+    public void scrollToElement(int index) {
+        int first = (index - 1) - (mVisibleElements - 1) / 2;
+        first = Math.min(first, mTotal - mVisibleElements);
+        first = Math.max(first, 0);
+        if (first != mFirstVisible) {
+            mFirstVisible = first;
+            mAccessibilityHelper.invalidateRoot();
+            reDraw();
+        }
+    }
+
     public void attachListener(OnInteractionListener listener) {
         mListener = listener;
     }
 
+    /**
+     * Enable or disable the counting of rendering metrics. Metrics are disabled by default, and
+     * disabling them drops every counter.
+     *
+     * @param enabled is true to start counting, false to stop.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (!enabled) {
+            mMetrics = null;
+        } else if (mMetrics == null) {
+            mMetrics = new MetricsCounters();
+        }
+    }
+
+    /**
+     * Get a snapshot of the rendering metrics. Must be called from the main thread.
+     *
+     * @return the metrics counted since they were enabled or last reset, or null if metrics are not
+     * enabled.
+     */
+    @Nullable
+    public Metrics getMetrics() {
+        return mMetrics != null ? new Metrics(mMetrics) : null;
+    }
+
+    /**
+     * Reset every rendering metric to zero, if metrics are enabled.
+     */
+    public void resetMetrics() {
+        if (mMetrics != null) {
+            mMetrics = new MetricsCounters();
+        }
+    }
+
+    /**
+     * Attach this bar to a scheduler shared with other bars, or detach it. Changes published to a
+     * bar attached to a scheduler are applied by the scheduler, together with the changes of the
+     * other bars, instead of in a frame callback of its own. Must be called from the main thread.
+     *
+     * @param scheduler is the scheduler, or null to let this bar schedule its own changes.
+     */
+    public void setScheduler(@Nullable NavigationStatusBarScheduler scheduler) {
+        if (scheduler != null && scheduler != mScheduler) {
+            mSchedulerOrder = scheduler.nextOrder();
+        }
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Enable or disable drawing from snapshots. A bar with snapshots enabled that is drawn twice
+     * in a row with the same state, size and style is rendered once into a Bitmap, and drawn from
+     * that Bitmap from then on, until anything changes. Snapshots are shared by every bar with the
+     * same style and state, so this suits bars that rarely change, such as the ones into the rows
+     * of a list. In views mode a snapshot only replaces the child views, so the background of the
+     * view is still drawn as usual. In canvas mode it replaces the whole bar, and snapshots are
+     * keyed by the style of the bar, not by the background of the view, so bars with a background
+     * drawable, such as a selector or a ripple, are always drawn as usual.
+     *
+     * @param enabled is true to draw from snapshots, false to always draw the bar.
+     */
+    public void setSnapshotsEnabled(boolean enabled) {
+        if (!enabled) {
+            mSnapshotKey = null;
+            mLastDrawnKey = null;
+        } else if (mSnapshotKey == null) {
+            mSnapshotKey = new SnapshotCache.Key();
+            mLastDrawnKey = new SnapshotCache.Key();
+        }
+        invalidate();
+    }
+
+    /**
+     * Set the memory budget of the snapshots shared by every bar, evicting the least recently used
+     * snapshots if the current ones don't fit. The default budget is 4 MB.
+     *
+     * @param maxBytes is the maximum total size of the snapshots, in bytes.
+     */
+    public static void setSnapshotCacheSize(int maxBytes) {
+        SnapshotCache.setMaxBytes(maxBytes);
+    }
+
     /* *************** */
     /* Private methods */
     /* *************** */
 
+    /**
+     * Redraw the bar in the next frame. Bars with a scheduler leave the redraw to its frame, so
+     * that it is merged with their other pending changes and counted in its frame budget.
+     */
     private void reDraw() {
-        if (Looper.myLooper() == Looper.getMainLooper()) {
+        if (mScheduler != null) {
+            mRedrawPending.set(true);
+            scheduleUpdate();
+        } else if (Looper.myLooper() == Looper.getMainLooper()) {
             invalidate();
         } else {
             postInvalidate();
@@ -132,76 +807,88 @@ public class NavigationStatusBar extends LinearLayout {
     private void init(@Nullable AttributeSet set, Context context) {
         mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         mRect = new Rect();
+        mLabelCache = new StepLabelCache();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mAccessibilityHelper = new StepAccessibilityHelper();
+        ViewCompat.setAccessibilityDelegate(this, mAccessibilityHelper);
+
+        // Get global resources element.
+        mRes = this.getResources();
 
         // Read attributes array from AttributeSet and set all layout elements using attributes.
         if (set != null) {
             getAttributes(set);
-            setLayout(context);
+            DisplayMetrics metrics = mRes.getDisplayMetrics();
+            mAppliedDensity = metrics.density;
+            mAppliedScaledDensity = metrics.scaledDensity;
+            setStateValues();
+            if (mRenderMode == RENDER_MODE_CANVAS) {
+                setCanvasLayout();
+            } else {
+                setLayout(context);
+            }
         }
     }
 
     private void getAttributes(AttributeSet set) {
-        // Default values.
-        int bgColorDefValue = getResources().getColor(R.color.colorPrimaryDark);
-        int disabledBgColorDefValue = getResources().getColor(android.R.color.darker_gray);
-        int txtSizeDefValue = 0;
-        int lineHeightDefValue = 4;
-        int shapeSizeDefValue = 30;
+        // Attributes are parsed once and shared by every bar created with the same attribute values
+        // and theme.
+        NavigationStatusBarStyle style = NavigationStatusBarStyle.obtain(getContext(), set);
+        mStyle = style;
 
-        // Obtain a TypedArray with all elements defined in attrs.xml and initialise member
-        // variables with the values input through this TypedArray, also providing default values in
-        // case no value for that attribute was input by the user.
-        TypedArray ta = getContext().obtainStyledAttributes(set, R.styleable.NavigationStatusBar);
+        mBgColor = style.bgColor;
 
-        mBgColor = ta.getColor(R.styleable.NavigationStatusBar_bg_color, bgColorDefValue);
+        mTotal = style.total;
+        mTotal = mTotal < 1 ? 1 : mTotal;
 
-        mTotal = ta.getInt(R.styleable.NavigationStatusBar_total_elements, MAX_ELEMENTS);
-        mTotal = mTotal > MAX_ELEMENTS ? MAX_ELEMENTS : mTotal;
+        mClickables = style.clickables;
+        mClickables = mClickables > mTotal ? mTotal : mClickables;
 
-        mClickables = ta.getInt(R.styleable.NavigationStatusBar_clickable_elements, MAX_ELEMENTS);
-        mClickables = mClickables > MAX_ELEMENTS ? MAX_ELEMENTS : mClickables;
-
-        mSelected = ta.getInt(R.styleable.NavigationStatusBar_selected_element, 1);
+        mSelected = style.selected;
         mSelected = mSelected > mClickables ? mClickables : mSelected;
 
-        mSelectedBgColor = ta.getColor(R.styleable.NavigationStatusBar_selected_bg_color, bgColorDefValue);
-        mSelectedInnerTxtColor = ta.getColor(R.styleable.NavigationStatusBar_selected_inner_txt_color, bgColorDefValue);
-        mSelectedOuterTxtColor = ta.getColor(R.styleable.NavigationStatusBar_selected_outer_txt_color, bgColorDefValue);
-        mSelectedInnerTxtSize = ta.getInt(R.styleable.NavigationStatusBar_selected_inner_txt_size, txtSizeDefValue);
-        mSelectedOuterTxtSize = ta.getInt(R.styleable.NavigationStatusBar_selected_outer_txt_size, txtSizeDefValue);
-        mSelectedShapeStyle = ta.getInt(R.styleable.NavigationStatusBar_selected_shape_style, SHAPE_STYLE_SOLID);
-        mSelectedShapeSize = ta.getInt(R.styleable.NavigationStatusBar_selected_shape_size, shapeSizeDefValue);
-
-        mUnselectedBgColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_bg_color, bgColorDefValue);
-        mUnselectedInnerTxtColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_inner_txt_color, bgColorDefValue);
-        mUnselectedOuterTxtColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_outer_txt_color, bgColorDefValue);
-        mUnselectedInnerTxtSize = ta.getInt(R.styleable.NavigationStatusBar_unselected_inner_txt_size, txtSizeDefValue);
-        mUnselectedOuterTxtSize = ta.getInt(R.styleable.NavigationStatusBar_unselected_outer_txt_size, txtSizeDefValue);
-        mUnselectedShapeStyle = ta.getInt(R.styleable.NavigationStatusBar_unselected_shape_style, SHAPE_STYLE_SOLID);
-        mUnselectedShapeSize = ta.getInt(R.styleable.NavigationStatusBar_unselected_shape_size, shapeSizeDefValue);
-        mUnselectedLinesColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_lines_color, bgColorDefValue);
-
-        mNotClickableBgColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_bg_color, disabledBgColorDefValue);
-        mNotClickableInnerTxtColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_inner_txt_color, disabledBgColorDefValue);
-        mNotClickableOuterTxtColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_outer_txt_color, disabledBgColorDefValue);
-        mNotClickableInnerTxtSize = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_inner_txt_size, txtSizeDefValue);
-        mNotClickableOuterTxtSize = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_outer_txt_size, txtSizeDefValue);
-        mNotClickableShapeStyle = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_shape_style, SHAPE_STYLE_SOLID);
-        mNotClickableShapeSize = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_shape_size, shapeSizeDefValue);
-        mNotClickableLinesColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_lines_color, bgColorDefValue);
-
-        mShapesDrawable = ta.getInt(R.styleable.NavigationStatusBar_shape_drawable, SHAPE_DRAWABLE_OVAL);
-        mLinesHeight = ta.getInt(R.styleable.NavigationStatusBar_lines_height, lineHeightDefValue);
-
-        ta.recycle();
-
-        // Set ColorStateList member variables from input colors.
-        mUnselectedTintColorStateList = new ColorStateList(mStates,
-                new int[]{mUnselectedBgColor, mUnselectedBgColor, mUnselectedBgColor, mUnselectedBgColor});
-        mSelectedTintColorStateList = new ColorStateList(mStates,
-                new int[]{mSelectedBgColor, mSelectedBgColor, mSelectedBgColor, mSelectedBgColor});
-        mNotClickableTintColorStateList = new ColorStateList(mStates,
-                new int[]{mNotClickableBgColor, mNotClickableBgColor, mNotClickableBgColor, mNotClickableBgColor});
+        mSelectedBgColor = style.selectedBgColor;
+        mSelectedInnerTxtColor = style.selectedInnerTxtColor;
+        mSelectedOuterTxtColor = style.selectedOuterTxtColor;
+        mSelectedInnerTxtSize = style.selectedInnerTxtSize;
+        mSelectedOuterTxtSize = style.selectedOuterTxtSize;
+        mSelectedShapeStyle = style.selectedShapeStyle;
+        mSelectedShapeSize = style.selectedShapeSize;
+
+        mUnselectedBgColor = style.unselectedBgColor;
+        mUnselectedInnerTxtColor = style.unselectedInnerTxtColor;
+        mUnselectedOuterTxtColor = style.unselectedOuterTxtColor;
+        mUnselectedInnerTxtSize = style.unselectedInnerTxtSize;
+        mUnselectedOuterTxtSize = style.unselectedOuterTxtSize;
+        mUnselectedShapeStyle = style.unselectedShapeStyle;
+        mUnselectedShapeSize = style.unselectedShapeSize;
+        mUnselectedLinesColor = style.unselectedLinesColor;
+
+        mNotClickableBgColor = style.notClickableBgColor;
+        mNotClickableInnerTxtColor = style.notClickableInnerTxtColor;
+        mNotClickableOuterTxtColor = style.notClickableOuterTxtColor;
+        mNotClickableInnerTxtSize = style.notClickableInnerTxtSize;
+        mNotClickableOuterTxtSize = style.notClickableOuterTxtSize;
+        mNotClickableShapeStyle = style.notClickableShapeStyle;
+        mNotClickableShapeSize = style.notClickableShapeSize;
+        mNotClickableLinesColor = style.notClickableLinesColor;
+
+        mShapesDrawable = style.shapesDrawable;
+        mLinesHeight = style.linesHeight;
+        mRenderMode = style.renderMode;
+        mRequestedVisibleElements = style.visibleElements;
+        mSelectionAnimationDuration = style.selectionAnimationDuration;
+        mProgressColor = style.progressColor;
+
+        // The inflated layout only has room for MAX_ELEMENTS elements, so bigger bars must be drawn
+        // in canvas mode.
+        if (mTotal > MAX_ELEMENTS) {
+            mRenderMode = RENDER_MODE_CANVAS;
+        }
+        updateWindow();
+
+        // Lines height is given in dp. It is also the stroke width of stroke shapes.
+        mLinesHeightPx = (int) dp2px(mLinesHeight);
 
         // Set background color.
         mPaint.setColor(mBgColor);
@@ -219,15 +906,13 @@ public class NavigationStatusBar extends LinearLayout {
     }
 
     /**
-     * Convert sp (Scale-independent Pixels) to pixels.
+     * Convert a text size to pixels, using the current density and font scale.
      *
-     * @param sp is the integer sp value to be converted to pixels.
-     * @return the float value of pixels corresponding to the given sp value.
+     * @param size is the integer text size, in sp.
+     * @return the float value of pixels corresponding to the given text size.
      */
-    private float sp2px(int sp) {
-        return (float) sp;
-        //return sp * mRes.getDisplayMetrics().scaledDensity;
-        //return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, (float) sp, mRes.getDisplayMetrics());
+    private float txtSize2px(int size) {
+        return TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, (float) size, mRes.getDisplayMetrics());
     }
 
     private void setLayout(Context context) {
@@ -235,71 +920,109 @@ public class NavigationStatusBar extends LinearLayout {
         LayoutInflater inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         inflater.inflate(R.layout.navigation_status_bar, this, true);
 
-        // Get global resources element.
-        mRes = this.getResources();
+        // Elements are exposed to accessibility services as virtual views of this bar, so the
+        // inflated views must not be exposed too.
+        getChildAt(0).setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO_HIDE_DESCENDANTS);
 
         mElements = new ArrayList<>();
         mShapes = new ArrayList<>();
         mOuterNumbers = new ArrayList<>();
         mLeftLines = new ArrayList<>();
         mRightLines = new ArrayList<>();
+        mAppliedItemStyles = new AppliedItemStyle[MAX_ELEMENTS];
 
-        // Strings for getIdentifier.
-        String type = "id";
-        String pkg = getContext().getPackageName();
-
+        // All elements are resolved, even the ones beyond mTotal, as the number of elements can be
+        // changed later through edit().
         for (int i = 0; i < MAX_ELEMENTS; i++) {
             // Set all wrappers.
-            int elementResId = mRes.getIdentifier("element_" + (i + 1), type, pkg);
-            mElements.add(i, (RelativeLayout) findViewById(elementResId));
+            mElements.add(i, (RelativeLayout) findViewById(ELEMENT_IDS[i]));
 
             // Set outer numbers.
-            int numberResId = mRes.getIdentifier("text_" + (i + 1), type, pkg);
-            mOuterNumbers.add(i, (TextView) findViewById(numberResId));
+            mOuterNumbers.add(i, (TextView) findViewById(TEXT_IDS[i]));
+            mAppliedItemStyles[i] = new AppliedItemStyle();
 
-            // Set visible elements.
-            if (i < mTotal) {
-                // Set shapes.
-                int shapeResId = mRes.getIdentifier("shape_" + (i + 1), type, pkg);
-                mShapes.add(i, (TextView) findViewById(shapeResId));
-                switch (mShapesDrawable) {
-                    case SHAPE_DRAWABLE_RECTANGLE:
-                        mShapes.get(i).setBackground(mRes.getDrawable(R.drawable.shape_rectangle, null));
-                        break;
-
-                    case SHAPE_DRAWABLE_OVAL:
-                    default:
-                        mShapes.get(i).setBackground(mRes.getDrawable(R.drawable.shape_circle, null));
-                }
+            // Set shapes.
+            mShapes.add(i, (TextView) findViewById(SHAPE_IDS[i]));
 
-                // Set lines.
-                int leftLineResId = mRes.getIdentifier("left_line_" + (i + 1), type, pkg);
-                int rightLineResId = mRes.getIdentifier("right_line_" + (i + 1), type, pkg);
-                mLeftLines.add(i, findViewById(leftLineResId));
-                mRightLines.add(i, findViewById(rightLineResId));
+            // Set lines.
+            mLeftLines.add(i, findViewById(LEFT_LINE_IDS[i]));
+            mRightLines.add(i, findViewById(RIGHT_LINE_IDS[i]));
 
-                RelativeLayout.LayoutParams layoutParams =
-                        (RelativeLayout.LayoutParams) (mLeftLines.get(i).getLayoutParams());
-                layoutParams.width = 0;
-                layoutParams.height = (int) dp2px(mLinesHeight);
-                mLeftLines.get(i).setLayoutParams(layoutParams);
+            setLineHeight(mLeftLines.get(i));
+            setLineHeight(mRightLines.get(i));
+        }
 
-                layoutParams =
-                        (RelativeLayout.LayoutParams) (mRightLines.get(i).getLayoutParams());
-                layoutParams.width = 0;
-                layoutParams.height = (int) dp2px(mLinesHeight);
-                mRightLines.get(i).setLayoutParams(layoutParams);
+        updateElements();
+    }
 
-                if (i < mClickables) {
-                    // Set colors for clickable elements.
-                    mShapes.get(i).setBackgroundTintList(mUnselectedTintColorStateList);
-                    mLeftLines.get(i).setBackgroundColor(mUnselectedLinesColor);
-                    if (i == (mClickables - 1)) {
-                        // The line to the right of the last clickable element must have "not
-                        // clickable" style.
-                        mRightLines.get(i).setBackgroundColor(mNotClickableLinesColor);
-                    } else {
-                        // The line to the right of any clickable element but the last one must have
+    private void setLineHeight(View line) {
+        RelativeLayout.LayoutParams layoutParams = (RelativeLayout.LayoutParams) (line.getLayoutParams());
+        layoutParams.width = 0;
+        layoutParams.height = mLinesHeightPx;
+        line.setLayoutParams(layoutParams);
+    }
+
+    /**
+     * Recompute every size in pixels after a change of density or font scale, in place. Dimensions
+     * are kept in the units of their attributes (dp for lines and shapes, sp for texts),
+     * so nothing is inflated or parsed again: only the pixel values that depend on the changed
+     * metrics are applied again. Other configuration changes, such as rotation, only need the
+     * layout pass the framework already requests.
+     */
+    private void updateDimensions() {
+        DisplayMetrics metrics = mRes.getDisplayMetrics();
+        if ((mShapes == null && mStateShapeSizes == null) ||
+                (metrics.density == mAppliedDensity && metrics.scaledDensity == mAppliedScaledDensity)) {
+            return;
+        }
+        mAppliedDensity = metrics.density;
+        mAppliedScaledDensity = metrics.scaledDensity;
+
+        int linesHeightPx = (int) dp2px(mLinesHeight);
+        boolean linesChanged = linesHeightPx != mLinesHeightPx;
+        mLinesHeightPx = linesHeightPx;
+        updateStateShapeSizes();
+
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            updateStateTextSizes();
+            mLabelCache.clearMeasures();
+        } else {
+            // Restyle every element from scratch: shape sizes, text sizes and stroke widths are in
+            // pixels.
+            for (int i = 0; i < MAX_ELEMENTS; i++) {
+                if (linesChanged) {
+                    setLineHeight(mLeftLines.get(i));
+                    setLineHeight(mRightLines.get(i));
+                }
+                mAppliedItemStyles[i].applied = false;
+                Arrays.fill(mAppliedItemStyles[i].backgrounds, null);
+            }
+            updateElements();
+        }
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Set colors, sizes, styles and visibility of every element of the inflated layout from the
+     * current number of elements, number of clickable elements and selected element.
+     */
+    private void updateElements() {
+        boolean outerTextsVisible = mSelectedOuterTxtSize > 0 || mUnselectedOuterTxtSize > 0 ||
+                mNotClickableOuterTxtSize > 0;
+
+        for (int i = 0; i < MAX_ELEMENTS; i++) {
+            // Set visible elements.
+            if (i < mTotal) {
+                if (i < mClickables) {
+                    // Set colors for clickable elements.
+                    mLeftLines.get(i).setBackgroundColor(mUnselectedLinesColor);
+                    if (i == (mClickables - 1)) {
+                        // The line to the right of the last clickable element must have "not
+                        // clickable" style.
+                        mRightLines.get(i).setBackgroundColor(mNotClickableLinesColor);
+                    } else {
+                        // The line to the right of any clickable element but the last one must have
                         // "unselected" style.
                         mRightLines.get(i).setBackgroundColor(mUnselectedLinesColor);
                     }
@@ -310,72 +1033,70 @@ public class NavigationStatusBar extends LinearLayout {
                     } else {
                         setItem(i, STATE_NOT_SELECTED);
                     }
-
-                    // Set listeners on clickable elements.
-                    final int index = i;
-                    mShapes.get(i).setOnClickListener(new OnClickListener() {
-                        @Override
-                        public void onClick(View v) {
-                            if (mListener != null) {
-                                // Unselect current selected item and select clicked item.
-                                //setNotSelected(mSelected - 1);
-                                setItem(mSelected - 1, STATE_NOT_SELECTED);
-                                //setSelected(index);
-                                setItem(index, STATE_SELECTED);
-
-                                // Update global selected item index.
-                                mSelected = index + 1;
-
-                                // Notify listener.
-                                mListener.onInteraction(mSelected);
-                            }
-                        }
-                    });
                 } else {
                     // Set colors, sizes and styles for not clickable elements.
+                    mLeftLines.get(i).setBackgroundColor(mNotClickableLinesColor);
+                    mRightLines.get(i).setBackgroundColor(mNotClickableLinesColor);
                     setItem(i, STATE_NOT_CLICKABLE);
-/*                    mShapes.get(i).setBackgroundTintList(mNotClickableTintColorStateList);
-                    mShapes.get(i).setTextColor(mNotClickableInnerTxtColor);
-                    mLeftLines.get(i).setBackgroundColor(mNotClickableBgColor);
-                    mRightLines.get(i).setBackgroundColor(mNotClickableBgColor);
-                    mOuterNumbers.get(i).setTextColor(mNotClickableOuterTxtColor);*/
                 }
 
-                // Set visibility.
+                // Set visibility. The first left line and the last right line are hidden. Outer
+                // TextViews must be visible only if any of their text sizes is greater than 0.
                 mElements.get(i).setVisibility(View.VISIBLE);
-                if (mSelectedOuterTxtSize > 0 || mUnselectedOuterTxtSize > 0 ||
-                        mNotClickableOuterTxtSize > 0) {
-                    // Outer TextViews must be visible only if any of their text sizes is greater
-                    // than 0.
-                    mOuterNumbers.get(i).setVisibility(View.VISIBLE);
-                } else {
-                    mOuterNumbers.get(i).setVisibility(View.GONE);
-                }
+                mLeftLines.get(i).setVisibility(i == 0 ? View.INVISIBLE : View.VISIBLE);
+                mRightLines.get(i).setVisibility(i == (mTotal - 1) ? View.INVISIBLE : View.VISIBLE);
+                mOuterNumbers.get(i).setVisibility(outerTextsVisible ? View.VISIBLE : View.GONE);
             } else {
                 // Elements beyond mTotal must not be visible.
                 mElements.get(i).setVisibility(View.GONE);
                 mOuterNumbers.get(i).setVisibility(View.GONE);
             }
         }
+    }
+
+    /**
+     * Move the selection of the inflated layout to a clickable element, animating the shapes of the
+     * previous and the new selected elements if required.
+     *
+     * @param index   is the 0-based index of the element to select.
+     * @param animate is true to animate the shapes, false to apply the change at once.
+     */
+    private void selectItem(int index, boolean animate) {
+        int oldSelected = mSelected - 1;
+        if (index == oldSelected) {
+            return;
+        }
+        countStateTransition();
 
-        // Hide first left line and last right line.
-        mLeftLines.get(0).setVisibility(View.INVISIBLE);
-        mRightLines.get(mTotal - 1).setVisibility(View.INVISIBLE);
+        if (oldSelected >= 0 && oldSelected < mClickables) {
+            setItem(oldSelected, STATE_NOT_SELECTED);
+        }
+        setItem(index, STATE_SELECTED);
+
+        // Update global selected item index.
+        mSelected = index + 1;
+        if (animate) {
+            animateSelection(oldSelected + 1);
+        } else {
+            endSelectionTransition();
+        }
+        mAccessibilityHelper.invalidateRoot();
     }
 
     /**
-     * Set style for selected element.
+     * Set style for selected element. Only the values that differ from the ones previously applied
+     * to the element are set, so that a layout pass is only requested when the size of the shape
+     * or the size of any text actually changes.
      *
      * @param i     is the index of the element in the global arrays of elements.
      * @param state is the index of the element in the global arrays of elements.
      */
     private void setItem(int i, int state) {
         int innerTxtSize, innerTxtColor, outerTxtSize, outerTxtColor, shapeSize, shapeStyle,
-                linesColor;
-        ColorStateList colorStateList;
+                linesColor, bgColor;
         TextView shapeTextView = mShapes.get(i);
         TextView numberTextView = mOuterNumbers.get(i);
-        String text = Integer.toString(i + 1);
+        AppliedItemStyle applied = mAppliedItemStyles[i];
 
         switch (state) {
             case STATE_SELECTED:
@@ -383,10 +1104,9 @@ public class NavigationStatusBar extends LinearLayout {
                 innerTxtColor = mSelectedInnerTxtColor;
                 outerTxtSize = mSelectedOuterTxtSize;
                 outerTxtColor = mSelectedOuterTxtColor;
-                shapeSize = mSelectedShapeSize;
                 shapeStyle = mSelectedShapeStyle;
                 linesColor = mUnselectedLinesColor;
-                colorStateList = mSelectedTintColorStateList;
+                bgColor = mSelectedBgColor;
 
                 // Update global selected item index.
                 mSelected = i + 1;
@@ -397,10 +1117,9 @@ public class NavigationStatusBar extends LinearLayout {
                 innerTxtColor = mUnselectedInnerTxtColor;
                 outerTxtSize = mUnselectedOuterTxtSize;
                 outerTxtColor = mUnselectedOuterTxtColor;
-                shapeSize = mUnselectedShapeSize;
                 shapeStyle = mUnselectedShapeStyle;
                 linesColor = mUnselectedLinesColor;
-                colorStateList = mUnselectedTintColorStateList;
+                bgColor = mUnselectedBgColor;
                 break;
 
             case STATE_NOT_CLICKABLE:
@@ -409,43 +1128,1260 @@ public class NavigationStatusBar extends LinearLayout {
                 innerTxtColor = mNotClickableInnerTxtColor;
                 outerTxtSize = mNotClickableOuterTxtSize;
                 outerTxtColor = mNotClickableOuterTxtColor;
-                shapeSize = mNotClickableShapeSize;
                 shapeStyle = mNotClickableShapeStyle;
                 linesColor = mNotClickableLinesColor;
-                colorStateList = mNotClickableTintColorStateList;
+                bgColor = mNotClickableBgColor;
                 break;
         }
+        shapeSize = mStateShapeSizes[state];
 
         // Set inner text if required.
-        if (innerTxtSize > 0) {
-            shapeTextView.setText(text);
-            shapeTextView.setTextSize(sp2px(innerTxtSize));
-            shapeTextView.setTextColor(innerTxtColor);
+        boolean relayout = setItemText(shapeTextView, i, applied.applied, applied.innerTxtSize,
+                innerTxtSize, applied.innerTxtColor, innerTxtColor);
+
+        // Set outer text if required.
+        relayout |= setItemText(numberTextView, i, applied.applied, applied.outerTxtSize,
+                outerTxtSize, applied.outerTxtColor, outerTxtColor);
+
+        // Set width and height for selected shape. Changing layout params requests a new layout
+        // pass, so do it only if the size is different.
+        if (!applied.applied || applied.shapeSize != shapeSize) {
+            final ViewGroup.LayoutParams layoutParams = shapeTextView.getLayoutParams();
+            layoutParams.width = shapeSize;
+            layoutParams.height = shapeSize;
+            shapeTextView.setLayoutParams(layoutParams);
+            relayout = true;
+        }
+        if (relayout && mMetrics != null) {
+            mMetrics.itemLayoutRequests++;
+        }
+
+        // Set background shape. Backgrounds share their state with every other shape with the
+        // same style, so they are never mutated: the background of the new state is set instead.
+        if (!applied.applied || applied.shapeStyle != shapeStyle || applied.bgColor != bgColor ||
+                applied.linesColor != linesColor || applied.shapeSize != shapeSize) {
+            shapeTextView.setBackground(getItemBackground(i, state));
+        }
+
+        applied.applied = true;
+        applied.innerTxtSize = innerTxtSize;
+        applied.innerTxtColor = innerTxtColor;
+        applied.outerTxtSize = outerTxtSize;
+        applied.outerTxtColor = outerTxtColor;
+        applied.shapeSize = shapeSize;
+        applied.shapeStyle = shapeStyle;
+        applied.linesColor = linesColor;
+        applied.bgColor = bgColor;
+
+        // Child views are not drawn while the bar is drawn from a snapshot, so the bar itself must
+        // be drawn again.
+        if (mSnapshotKey != null) {
+            invalidate();
+        }
+    }
+
+    /**
+     * Get the background of the shape of an element for a state, creating it only the first time
+     * the element takes that state.
+     *
+     * @param i     is the index of the element.
+     * @param state is STATE_SELECTED, STATE_NOT_SELECTED or STATE_NOT_CLICKABLE.
+     * @return the background, owned by the shape of the element.
+     */
+    private Drawable getItemBackground(int i, int state) {
+        Drawable[] backgrounds = mAppliedItemStyles[i].backgrounds;
+        if (backgrounds[state] == null) {
+            backgrounds[state] = ShapeDrawableCache.getDrawable(mShapesDrawable,
+                    mStateShapeStyles[state], mStateBgColors[state], mLinesHeightPx,
+                    mStateLinesColors[state], mStateShapeSizes[state]);
+        }
+        return backgrounds[state];
+    }
+
+    /**
+     * Set the number of an element into one of its TextViews, or clear it if the text size is 0.
+     * Text and text size are only set when they change, as both of them request a new layout pass.
+     *
+     * @param textView    is the TextView to be set.
+     * @param i           is the index of the element.
+     * @param applied     is true if any style has already been applied to this TextView.
+     * @param oldTxtSize  is the text size previously applied.
+     * @param txtSize     is the text size to apply.
+     * @param oldTxtColor is the text color previously applied.
+     * @param txtColor    is the text color to apply.
+     * @return true if the text or the text size changed, requesting a layout pass.
+     */
+    private boolean setItemText(TextView textView, int i, boolean applied, int oldTxtSize, int txtSize,
+                                int oldTxtColor, int txtColor) {
+        boolean relayout = false;
+        if (txtSize > 0) {
+            if (!applied || oldTxtSize <= 0) {
+                textView.setText(mLabelCache.getLabel(i));
+                relayout = true;
+            }
+            if (!applied || oldTxtSize != txtSize) {
+                textView.setTextSize(TypedValue.COMPLEX_UNIT_PX, txtSize2px(txtSize));
+                relayout = true;
+            }
+            if (!applied || oldTxtSize <= 0 || oldTxtColor != txtColor) {
+                textView.setTextColor(txtColor);
+            }
+        } else if (!applied || oldTxtSize > 0) {
+            textView.setText("");
+            relayout = true;
+        }
+        return relayout;
+    }
+
+    /**
+     * Prepare the paints and the per-state values used to draw all elements directly onto the
+     * canvas, instead of inflating the navigation status bar layout.
+     */
+    private void setCanvasLayout() {
+        // Nothing is inflated, so this view must draw its own content.
+        setWillNotDraw(false);
+
+        mShapePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mLinePaint = new Paint();
+        mLinePaint.setStyle(Paint.Style.FILL);
+        mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mShapeRect = new RectF();
+        mGeometry = new StepGeometry();
+        mStateInnerTxtSizes = new float[3];
+        mStateOuterTxtSizes = new float[3];
+        updateStateTextSizes();
+    }
+
+    /**
+     * Set the per-state values, indexed by STATE_NOT_SELECTED, STATE_SELECTED and
+     * STATE_NOT_CLICKABLE, used to draw elements in canvas mode and to build the backgrounds of the
+     * shapes in views mode.
+     */
+    private void setStateValues() {
+        mStateBgColors = new int[]{mUnselectedBgColor, mSelectedBgColor, mNotClickableBgColor};
+        mStateLinesColors = new int[]{mUnselectedLinesColor, mUnselectedLinesColor, mNotClickableLinesColor};
+        mStateInnerTxtColors = new int[]{mUnselectedInnerTxtColor, mSelectedInnerTxtColor,
+                mNotClickableInnerTxtColor};
+        mStateOuterTxtColors = new int[]{mUnselectedOuterTxtColor, mSelectedOuterTxtColor,
+                mNotClickableOuterTxtColor};
+        mStateShapeStyles = new int[]{mUnselectedShapeStyle, mSelectedShapeStyle, mNotClickableShapeStyle};
+        mStateShapeSizes = new int[3];
+        updateStateShapeSizes();
+    }
+
+    /**
+     * Convert the per-state shape sizes to pixels, in place, with the current density.
+     */
+    private void updateStateShapeSizes() {
+        mStateShapeSizes[STATE_NOT_SELECTED] = (int) dp2px(mUnselectedShapeSize);
+        mStateShapeSizes[STATE_SELECTED] = (int) dp2px(mSelectedShapeSize);
+        mStateShapeSizes[STATE_NOT_CLICKABLE] = (int) dp2px(mNotClickableShapeSize);
+    }
+
+    /**
+     * Convert the per-state text sizes to pixels, in place, with the current font scale.
+     */
+    private void updateStateTextSizes() {
+        mStateInnerTxtSizes[STATE_NOT_SELECTED] = txtSize2px(mUnselectedInnerTxtSize);
+        mStateInnerTxtSizes[STATE_SELECTED] = txtSize2px(mSelectedInnerTxtSize);
+        mStateInnerTxtSizes[STATE_NOT_CLICKABLE] = txtSize2px(mNotClickableInnerTxtSize);
+        mStateOuterTxtSizes[STATE_NOT_SELECTED] = txtSize2px(mUnselectedOuterTxtSize);
+        mStateOuterTxtSizes[STATE_SELECTED] = txtSize2px(mSelectedOuterTxtSize);
+        mStateOuterTxtSizes[STATE_NOT_CLICKABLE] = txtSize2px(mNotClickableOuterTxtSize);
+    }
+
+    /**
+     * Get the state of an element from the current number of clickable elements and the current
+     * selected element.
+     *
+     * @param i is the index of the element.
+     * @return STATE_SELECTED, STATE_NOT_SELECTED or STATE_NOT_CLICKABLE.
+     */
+    private int getItemState(int i) {
+        if (i >= mClickables) {
+            return STATE_NOT_CLICKABLE;
+        }
+        return i == (mSelected - 1) ? STATE_SELECTED : STATE_NOT_SELECTED;
+    }
+
+    /**
+     * Get the height of the row of shapes, which is the height of the biggest shape or line.
+     *
+     * @return the height in pixels.
+     */
+    private float getShapesHeight() {
+        return getGeometry(false).getRowHeight();
+    }
+
+    /**
+     * Get the geometry of the elements for the current state of the bar, computing it only if the
+     * state or the width changed since it was last computed.
+     *
+     * @param measure is true to compute the positions of the elements, false if only the height of
+     *                the row of shapes is needed.
+     * @return the geometry, with positions relative to the row of shapes into the content area.
+     */
+    private StepGeometry getGeometry(boolean measure) {
+        mGeometry.setConfiguration(mTotal, mFirstVisible, mVisibleElements, mClickables, mSelected,
+                mStateShapeSizes[STATE_NOT_SELECTED], mStateShapeSizes[STATE_SELECTED],
+                mStateShapeSizes[STATE_NOT_CLICKABLE], mLinesHeightPx);
+        if (measure) {
+            mGeometry.measure(getWidth() - getPaddingLeft() - getPaddingRight());
+        }
+        return mGeometry;
+    }
+
+    /**
+     * Get the height of the row of outer texts, which is zero if no outer text is visible.
+     *
+     * @return the height in pixels.
+     */
+    private float getOuterTextsHeight() {
+        float height = 0;
+        for (float size : mStateOuterTxtSizes) {
+            if (size > 0) {
+                StepLabelCache.Measures measures = mLabelCache.getMeasures(size);
+                height = Math.max(height, measures.bottom - measures.top);
+            }
+        }
+        return height;
+    }
+
+    /**
+     * Start the transition of the shapes of the previous and the current selected elements, ending
+     * any running transition first. A single animator is reused for every transition in both
+     * render modes, and no frame of a transition requests a layout pass: canvas mode only redraws
+     * the elements, and views mode only changes the scale of the shapes and lines and the fraction
+     * of their transition backgrounds.
+     *
+     * @param oldSelected is the 1-based index of the previous selected element.
+     */
+    private void animateSelection(int oldSelected) {
+        if (oldSelected == mSelected) {
+            return;
+        }
+        endSelectionTransition();
+        if (mSelectionAnimationDuration <= 0) {
+            return;
+        }
+
+        if (mSelectionAnimator == null) {
+            mSelectionAnimator = ValueAnimator.ofFloat(0f, 1f);
+            mSelectionAnimator.setDuration(mSelectionAnimationDuration);
+            mSelectionAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+                @Override
+                public void onAnimationUpdate(ValueAnimator animation) {
+                    mSelectionFraction = animation.getAnimatedFraction();
+                    updateSelectionTransition();
+                }
+            });
+        }
+
+        mAnimatedFrom = oldSelected - 1;
+        mAnimatedTo = mSelected - 1;
+        mSelectionFraction = 0f;
+        updateSelectionTransition();
+        mSelectionAnimator.start();
+    }
+
+    /**
+     * End the running selection transition, if any, showing the final state of its elements.
+     */
+    private void endSelectionTransition() {
+        if (mSelectionAnimator != null && mSelectionAnimator.isStarted()) {
+            mSelectionAnimator.end();
+        }
+    }
+
+    /**
+     * Show the current fraction of the selection transition on both of its elements.
+     */
+    private void updateSelectionTransition() {
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            if (isHardwareAccelerated()) {
+                invalidate();
+            } else {
+                invalidateElement(mAnimatedFrom);
+                invalidateElement(mAnimatedTo);
+            }
         } else {
-            shapeTextView.setText("");
+            updateItemTransition(mAnimatedFrom);
+            updateItemTransition(mAnimatedTo);
         }
+    }
 
-        // Set outer text if required.
-        if (outerTxtSize > 0) {
-            numberTextView.setText(text);
-            numberTextView.setTextSize(sp2px(outerTxtSize));
-            numberTextView.setTextColor(outerTxtColor);
+    /**
+     * Show the current fraction of the selection transition on an element of the inflated layout,
+     * the same way canvas mode draws it. The layout size of the shape is already the size of its
+     * new state, so the shape is scaled to the interpolated size, and its lines, which run from the
+     * edges of the element to the edges of the shape, are scaled from the edges of the element to
+     * keep touching it. Colors are interpolated by a ShapeTransitionDrawable between the
+     * backgrounds of both states, which the element already owns.
+     *
+     * @param i is the index of the element.
+     */
+    private void updateItemTransition(int i) {
+        if (mShapes == null || i < 0 || i >= mClickables) {
+            return;
+        }
+        int state = getItemState(i);
+        int fromState = state == STATE_SELECTED ? STATE_NOT_SELECTED : STATE_SELECTED;
+        float fraction = mSelectionFraction;
+        float toSize = mStateShapeSizes[state];
+        float size = mStateShapeSizes[fromState] + (toSize - mStateShapeSizes[fromState]) * fraction;
+        TextView shape = mShapes.get(i);
+        AppliedItemStyle applied = mAppliedItemStyles[i];
+
+        float scale = fraction < 1f && toSize > 0 ? size / toSize : 1f;
+        shape.setScaleX(scale);
+        shape.setScaleY(scale);
+
+        // Every element takes the same width whatever the size of its shape, so the width of the
+        // lines after the layout pass of the new size is known before that pass runs.
+        float lineWidth = (mElements.get(i).getWidth() - toSize) / 2f;
+        float lineScale = fraction < 1f && lineWidth > 0 ?
+                (lineWidth + (toSize - size) / 2f) / lineWidth : 1f;
+        View leftLine = mLeftLines.get(i);
+        View rightLine = mRightLines.get(i);
+        leftLine.setPivotX(0f);
+        leftLine.setScaleX(lineScale);
+        rightLine.setPivotX(Math.max(lineWidth, 0f));
+        rightLine.setScaleX(lineScale);
+
+        if (fraction < 1f) {
+            if (applied.transition == null) {
+                applied.transition = new ShapeTransitionDrawable();
+            }
+            applied.transition.setBackgrounds(getItemBackground(i, fromState),
+                    getItemBackground(i, state));
+            applied.transition.setFraction(fraction);
+            shape.setBackground(applied.transition);
+        } else {
+            shape.setBackground(getItemBackground(i, state));
+        }
+    }
+
+    /**
+     * Interpolate between two colors, channel by channel.
+     *
+     * @param from     is the color at fraction 0.
+     * @param to       is the color at fraction 1.
+     * @param fraction is the fraction between both colors.
+     * @return the interpolated color.
+     */
+    private static int blendColors(int from, int to, float fraction) {
+        int a = (int) (((from >>> 24) & 0xFF) + (((to >>> 24) & 0xFF) - ((from >>> 24) & 0xFF)) * fraction);
+        int r = (int) (((from >> 16) & 0xFF) + (((to >> 16) & 0xFF) - ((from >> 16) & 0xFF)) * fraction);
+        int g = (int) (((from >> 8) & 0xFF) + (((to >> 8) & 0xFF) - ((from >> 8) & 0xFF)) * fraction);
+        int b = (int) ((from & 0xFF) + ((to & 0xFF) - (from & 0xFF)) * fraction);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Draw the bar from its snapshot, if it is idle: it must have been drawn before with the same
+     * snapshot key, and no transition or touch can be running. The snapshot is rendered first if it
+     * is not cached.
+     *
+     * @param canvas is the canvas received in draw() in canvas mode, or in dispatchDraw() in views
+     *               mode.
+     * @return true if the bar was drawn from its snapshot, false if it must be drawn as usual.
+     */
+    private boolean drawSnapshot(Canvas canvas) {
+        // Backgrounds of the view are not part of the key, and they can change with the state of
+        // the view. Snapshots of views mode don't include them.
+        if (getWidth() <= 0 || getHeight() <= 0 || mSelectionFraction < 1f || mTouchedElement >= 0 ||
+                (mRenderMode == RENDER_MODE_CANVAS && getBackground() != null)) {
+            mLastDrawnKey.style = null;
+            mLastDrawnKey.width = 0;
+            return false;
+        }
+
+        DisplayMetrics metrics = mRes.getDisplayMetrics();
+        SnapshotCache.Key key = mSnapshotKey;
+        key.style = mStyle;
+        key.labels = mLabelCache.getLabels();
+        key.labelsHash = mLabelCache.getLabelsHash();
+        key.renderMode = mRenderMode;
+        key.total = mTotal;
+        key.clickables = mClickables;
+        key.selected = mSelected;
+        key.firstVisible = mFirstVisible;
+        key.progressBits = Float.floatToIntBits(mProgress);
+        key.width = getWidth();
+        key.height = getHeight();
+        key.paddingLeft = getPaddingLeft();
+        key.paddingTop = getPaddingTop();
+        key.paddingRight = getPaddingRight();
+        key.paddingBottom = getPaddingBottom();
+        key.density = metrics.density;
+        key.scaledDensity = metrics.scaledDensity;
+        if (!key.equals(mLastDrawnKey)) {
+            // Something changed since the last frame, so the bar is not idle.
+            mLastDrawnKey.set(key);
+            return false;
+        }
+
+        Bitmap snapshot = SnapshotCache.get(key);
+        if (snapshot == null) {
+            snapshot = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+            if (mRenderMode == RENDER_MODE_CANVAS) {
+                super.draw(new Canvas(snapshot));
+            } else {
+                super.dispatchDraw(new Canvas(snapshot));
+            }
+            SnapshotCache.put(key, snapshot);
+        }
+        canvas.drawBitmap(snapshot, 0, 0, null);
+        return true;
+    }
+
+    /**
+     * Set the number of visible elements from the visible_elements attribute and the current number
+     * of elements, and center the window of visible elements on the selected element.
+     */
+    private void updateWindow() {
+        mVisibleElements = mRequestedVisibleElements;
+        if (mRenderMode != RENDER_MODE_CANVAS || mVisibleElements < 1 || mVisibleElements > mTotal) {
+            mVisibleElements = mTotal;
+        }
+        mLabelCache.setWindowSize(mVisibleElements);
+        centerWindowOnSelected();
+    }
+
+    /**
+     * Publish a batch of changes and make sure that it is applied in the next frame. Batches
+     * published before the next frame are merged into a single pending update, without locking.
+     *
+     * @param total      is the new number of elements, or UNCHANGED.
+     * @param clickables is the new number of clickable elements, or UNCHANGED.
+     * @param selected   is the new 1-based selected element, or UNCHANGED.
+     */
+    private void publishUpdate(int total, int clickables, int selected) {
+        PendingUpdate current, merged;
+        do {
+            current = mPendingUpdate.get();
+            merged = current == null ? new PendingUpdate(total, clickables, selected) :
+                    current.merge(total, clickables, selected);
+        } while (!mPendingUpdate.compareAndSet(current, merged));
+
+        scheduleUpdate();
+    }
+
+    /**
+     * Publish a progress. The main thread reads the published progress once per frame while it
+     * shows a progress, and stops when it reads NO_PROGRESS, so only a progress published while
+     * no progress is shown needs to start the reads.
+     *
+     * @param progressBits is the raw bits of the progress, or NO_PROGRESS.
+     */
+    private void publishProgress(int progressBits) {
+        if (mPublishedProgress.getAndSet(progressBits) == NO_PROGRESS && progressBits != NO_PROGRESS) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                startProgressPolling();
+            } else {
+                mMainHandler.post(mStartProgressPollingRunnable);
+            }
+        }
+    }
+
+    /**
+     * Start reading the published progress once per frame, unless it is already being read. Must
+     * be called from the main thread.
+     */
+    private void startProgressPolling() {
+        if (mProgressPolling) {
+            return;
+        }
+        mProgressPolling = true;
+        NavigationStatusBarScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            scheduler.pollProgress(this);
+        } else {
+            Choreographer.getInstance().postFrameCallback(mProgressFrameCallback);
+        }
+    }
+
+    /**
+     * Apply the last published progress, on the main thread. Called once per frame while a
+     * progress is shown, from the frame callback of this bar or from its scheduler. Reads stop
+     * when no progress is shown or the bar is detached, and start again when a progress is
+     * published or the bar is attached again.
+     *
+     * @return true if the progress must be read again in the next frame.
+     */
+    boolean pollProgress() {
+        if (isAttachedToWindow()) {
+            applyProgress(Float.intBitsToFloat(mPublishedProgress.get()));
+            mProgressPolling = !Float.isNaN(mProgress);
         } else {
-            numberTextView.setText("");
+            mProgressPolling = false;
         }
+        return mProgressPolling;
+    }
 
-        // Set width and height for selected shape.
-        final ViewGroup.LayoutParams layoutParams = shapeTextView.getLayoutParams();
-        layoutParams.width = shapeSize;
-        layoutParams.height = shapeSize;
-        shapeTextView.setLayoutParams(layoutParams);
+    /**
+     * Make sure that the frame callback applying published changes runs in the next frame. Only the
+     * first change published after a frame posts the callback; the others just find it scheduled.
+     * Posting it from another thread briefly takes the lock of the message queue of the main
+     * thread, at most once per frame.
+     */
+    private void scheduleUpdate() {
+        if (mUpdateScheduled.compareAndSet(false, true)) {
+            NavigationStatusBarScheduler scheduler = mScheduler;
+            if (scheduler != null) {
+                scheduler.schedule(this);
+                return;
+            }
+
+            // Choreographer instances are per thread, so the frame callback must be posted from the
+            // main thread.
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(mUpdateFrameCallback);
+            } else {
+                mMainHandler.post(mScheduleUpdateRunnable);
+            }
+        }
+    }
+
+    /**
+     * Apply every change published since the last time, on the main thread. Called from the frame
+     * callback of this bar or from its scheduler.
+     */
+    void applyScheduledChanges() {
+        // Allow new updates to schedule another frame before taking the pending one, so that no
+        // update published from now on can be missed.
+        mUpdateScheduled.set(false);
+        PendingUpdate update = mPendingUpdate.getAndSet(null);
+        if (update != null) {
+            applyUpdate(update.total, update.clickables, update.selected, true);
+        }
+        if (mRedrawPending.getAndSet(false)) {
+            invalidate();
+        }
+    }
+
+    int getSchedulerOrder() {
+        return mSchedulerOrder;
+    }
+
+    /**
+     * Apply the last published progress on the main thread, if it changed.
+     *
+     * @param progress is the progress from 0 to 1, or NaN to show no progress.
+     */
+    private void applyProgress(float progress) {
+        if (Float.floatToIntBits(progress) == Float.floatToIntBits(mProgress) ||
+                (mShapes == null && mStateShapeSizes == null)) {
+            return;
+        }
+        mProgress = progress;
+        if (mRenderMode != RENDER_MODE_CANVAS && !Float.isNaN(progress)) {
+            switchToCanvasMode();
+            updateWindow();
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    /**
+     * Stop drawing the bar through the inflated layout and draw it onto the canvas instead.
+     */
+    private void switchToCanvasMode() {
+        removeAllViews();
+        mRenderMode = RENDER_MODE_CANVAS;
+        setCanvasLayout();
+    }
 
-        // Set background shape.
-        GradientDrawable shapeBg = (GradientDrawable) shapeTextView.getBackground();
-        if (shapeStyle == SHAPE_STYLE_STROKE) {
-            shapeBg.setStroke((int) dp2px(mLinesHeight), linesColor);
+    /**
+     * Get the x coordinate reached by the progress, relative to the content area.
+     *
+     * @param geometry is the current geometry of the bar.
+     * @return the x coordinate, or negative infinity if no progress is shown.
+     */
+    private float getProgressX(StepGeometry geometry) {
+        if (Float.isNaN(mProgress)) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        // Progress runs from the center of the first element to the center of the last one.
+        float position = mProgress * (mTotal - 1) - mFirstVisible;
+        return geometry.getStepWidth() * (position + 0.5f);
+    }
+
+    /**
+     * Check whether the progress reaches an element.
+     *
+     * @param i is the 0-based index of the element.
+     * @return true if a progress is shown and it reaches the center of the element.
+     */
+    private boolean isReachedByProgress(int i) {
+        return !Float.isNaN(mProgress) && i <= mProgress * (mTotal - 1) + 1e-4f;
+    }
+
+    /**
+     * Apply a change of state on the main thread, restyling only what actually changes.
+     *
+     * @param total      is the new number of elements, or UNCHANGED.
+     * @param clickables is the new number of clickable elements, or UNCHANGED.
+     * @param selected   is the new 1-based selected element, or UNCHANGED.
+     * @param animate    is true to run the selection transition, false to apply the change at once.
+     */
+    private void applyUpdate(int total, int clickables, int selected, boolean animate) {
+        // Bars created without attributes have nothing to update.
+        if (mShapes == null && mStateShapeSizes == null) {
+            return;
+        }
+
+        total = total != UNCHANGED ? Math.max(total, 1) : mTotal;
+        clickables = clickables != UNCHANGED ? clickables : mClickables;
+        clickables = Math.min(clickables, total);
+        selected = selected != UNCHANGED ? selected : mSelected;
+        selected = Math.min(selected, clickables);
+
+        if (total == mTotal && clickables == mClickables) {
+            // Only the selected element can have changed.
+            if (selected == mSelected) {
+                return;
+            }
+            if (mRenderMode == RENDER_MODE_CANVAS) {
+                countStateTransition();
+                int oldSelected = mSelected;
+                int oldFirstVisible = mFirstVisible;
+                float oldShapesHeight = getShapesHeight();
+                mSelected = selected;
+                centerWindowOnSelected();
+                if (animate) {
+                    animateSelection(oldSelected);
+                } else {
+                    endSelectionTransition();
+                }
+                invalidateSelectionChange(oldSelected, oldFirstVisible, oldShapesHeight);
+                mAccessibilityHelper.invalidateRoot();
+            } else if (selected >= 1) {
+                selectItem(selected - 1, animate);
+            } else {
+                countStateTransition();
+                endSelectionTransition();
+                if (mSelected >= 1) {
+                    setItem(mSelected - 1, STATE_NOT_SELECTED);
+                }
+                mSelected = selected;
+                mAccessibilityHelper.invalidateRoot();
+            }
+            return;
+        }
+
+        // Bars with more elements than the inflated layout can hold must be drawn in canvas mode.
+        if (mRenderMode != RENDER_MODE_CANVAS && total > MAX_ELEMENTS) {
+            switchToCanvasMode();
+        }
+
+        countStateTransition();
+        endSelectionTransition();
+        mTotal = total;
+        mClickables = clickables;
+        mSelected = selected;
+        updateWindow();
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            requestLayout();
+            invalidate();
+        } else {
+            updateElements();
+        }
+        mAccessibilityHelper.invalidateRoot();
+    }
+
+    private void countStateTransition() {
+        if (mMetrics != null) {
+            mMetrics.stateTransitions++;
+        }
+    }
+
+    /**
+     * Move the window of visible elements so that the selected element is as centered as possible.
+     */
+    private void centerWindowOnSelected() {
+        int first = (mSelected - 1) - (mVisibleElements - 1) / 2;
+        first = Math.min(first, mTotal - mVisibleElements);
+        mFirstVisible = Math.max(first, 0);
+    }
+
+    /**
+     * Draw every visible element (lines, shape, inner text and outer text) onto the canvas, at the
+     * positions given by the geometry of the bar. Only the elements into the window of visible
+     * elements are drawn, so the cost of drawing doesn't depend on the total number of elements.
+     *
+     * @param canvas is the canvas received in onDraw().
+     */
+    private void drawElements(Canvas canvas) {
+        StepGeometry geometry = getGeometry(true);
+        float left = getPaddingLeft();
+        float outerTextsBottom = getPaddingTop() + getOuterTextsHeight();
+        float centerY = outerTextsBottom + geometry.getCenterY();
+        float halfLine = mLinesHeightPx / 2f;
+        float progressX = left + getProgressX(geometry);
+
+        for (int column = 0; column < mVisibleElements; column++) {
+            int i = mFirstVisible + column;
+            int state = getItemState(i);
+            float elementLeft = left + geometry.getStepLeft(column);
+            float elementRight = elementLeft + geometry.getStepWidth();
+            float centerX = left + geometry.getCenterX(column);
+            float shapeSize = geometry.getShapeSize(column);
+            boolean animated = false;
+            int bgColor = mStateBgColors[state];
+            int strokeColor = mStateLinesColors[state];
+            int innerTxtColor = mStateInnerTxtColors[state];
+            int outerTxtColor = mStateOuterTxtColors[state];
+
+            // Skip elements out of the dirty area of software-rendered windows, when only some
+            // elements were invalidated. Hardware-accelerated canvases always cover the whole view.
+            if (!canvas.isHardwareAccelerated()) {
+                float halfWidth = getElementHalfWidth(geometry, i);
+                if (canvas.quickReject(centerX - halfWidth, 0, centerX + halfWidth, getHeight(),
+                        Canvas.EdgeType.AA)) {
+                    continue;
+                }
+            }
+
+            // Elements losing or gaining the selection are interpolated from their previous state
+            // while the selection transition is running. Text sizes are not interpolated, so that
+            // no text needs to be measured during the transition.
+            if (isInTransition(i, state)) {
+                animated = true;
+                int fromState = state == STATE_SELECTED ? STATE_NOT_SELECTED : STATE_SELECTED;
+                float f = mSelectionFraction;
+                shapeSize = mStateShapeSizes[fromState] + (shapeSize - mStateShapeSizes[fromState]) * f;
+                bgColor = blendColors(mStateBgColors[fromState], bgColor, f);
+                strokeColor = blendColors(mStateLinesColors[fromState], strokeColor, f);
+                innerTxtColor = blendColors(mStateInnerTxtColors[fromState], innerTxtColor, f);
+                outerTxtColor = blendColors(mStateOuterTxtColors[fromState], outerTxtColor, f);
+            }
+            if (isReachedByProgress(i)) {
+                bgColor = mProgressColor;
+                strokeColor = mProgressColor;
+            }
+            float halfShape = shapeSize / 2f;
+
+            // Lines. The line to the right of the last clickable element has "not clickable"
+            // style. Lines at the edges of the window are drawn if there are more elements beyond
+            // them. Lines of animated elements follow the interpolated size of their shapes.
+            if (animated ? i > 0 : geometry.hasLeftLine(column)) {
+                drawLine(canvas, elementLeft, centerX - halfShape, centerY, halfLine,
+                        i < mClickables ? mUnselectedLinesColor : mNotClickableLinesColor, progressX);
+            }
+            if (animated ? i < mTotal - 1 : geometry.hasRightLine(column)) {
+                drawLine(canvas, centerX + halfShape, elementRight, centerY, halfLine,
+                        i < (mClickables - 1) ? mUnselectedLinesColor : mNotClickableLinesColor,
+                        progressX);
+            }
+
+            // Shape.
+            mShapeRect.set(centerX - halfShape, centerY - halfShape, centerX + halfShape,
+                    centerY + halfShape);
+            drawShape(canvas, mStateShapeStyles[state], bgColor, strokeColor);
+
+            // Inner text, centered into the shape.
+            if (mStateInnerTxtSizes[state] > 0) {
+                StepLabelCache.Measures measures = mLabelCache.getMeasures(mStateInnerTxtSizes[state]);
+                drawLabel(canvas, i, measures, innerTxtColor, centerX,
+                        centerY - (measures.ascent + measures.descent) / 2f);
+            }
+
+            // Outer text, aligned to the bottom of the outer texts row.
+            if (mStateOuterTxtSizes[state] > 0) {
+                StepLabelCache.Measures measures = mLabelCache.getMeasures(mStateOuterTxtSizes[state]);
+                drawLabel(canvas, i, measures, outerTxtColor, centerX,
+                        outerTextsBottom - measures.bottom);
+            }
+        }
+    }
+
+    /**
+     * Draw a connecting line. The part of the line up to the progress is drawn with the progress
+     * color, and the rest with the color of the line, so that no pixel is painted twice.
+     *
+     * @param canvas    is the canvas received in onDraw().
+     * @param start     is the x coordinate of the start of the line.
+     * @param end       is the x coordinate of the end of the line.
+     * @param centerY   is the y coordinate of the center of the line.
+     * @param halfLine  is half the height of the line.
+     * @param color     is the color of the line.
+     * @param progressX is the x coordinate reached by the progress.
+     */
+    private void drawLine(Canvas canvas, float start, float end, float centerY, float halfLine,
+                          int color, float progressX) {
+        float split = Math.max(start, Math.min(end, progressX));
+        if (split > start) {
+            mLinePaint.setColor(mProgressColor);
+            canvas.drawRect(start, centerY - halfLine, split, centerY + halfLine, mLinePaint);
+        }
+        if (end > split) {
+            mLinePaint.setColor(color);
+            canvas.drawRect(split, centerY - halfLine, end, centerY + halfLine, mLinePaint);
+        }
+    }
+
+    /**
+     * Exclude from the clip of the canvas every visible line and shape that is fully opaque, so that
+     * the background is not painted under them. Oval shapes only exclude their inscribed square.
+     * Elements running the selection transition are not excluded, as their size and colors are
+     * being interpolated.
+     *
+     * @param canvas is the canvas received in onDraw().
+     */
+    private void clipOutOpaqueElements(Canvas canvas) {
+        StepGeometry geometry = getGeometry(true);
+        float left = getPaddingLeft();
+        float centerY = getPaddingTop() + getOuterTextsHeight() + geometry.getCenterY();
+        float halfLine = mLinesHeightPx / 2f;
+
+        for (int column = 0; column < mVisibleElements; column++) {
+            int i = mFirstVisible + column;
+            int state = getItemState(i);
+            float centerX = left + geometry.getCenterX(column);
+            float halfShape = geometry.getShapeSize(column) / 2f;
+            if (isInTransition(i, state)) {
+                continue;
+            }
+
+            // Lines, as drawn by drawElements().
+            if (geometry.hasLeftLine(column) && isLineOpaque(i, false)) {
+                clipOutRect(canvas, left + geometry.getLeftLineStart(column), centerY - halfLine,
+                        left + geometry.getLeftLineEnd(column), centerY + halfLine);
+            }
+            if (geometry.hasRightLine(column) && isLineOpaque(i, true)) {
+                clipOutRect(canvas, left + geometry.getRightLineStart(column), centerY - halfLine,
+                        left + geometry.getRightLineEnd(column), centerY + halfLine);
+            }
+
+            // Shape.
+            if (isShapeOpaque(i, state)) {
+                float half = mShapesDrawable == SHAPE_DRAWABLE_RECTANGLE ? halfShape :
+                        halfShape * (float) Math.sqrt(0.5);
+                clipOutRect(canvas, centerX - half, centerY - half, centerX + half, centerY + half);
+            }
+        }
+    }
+
+    /**
+     * Check whether drawing the bar in canvas mode paints any pixel more than once, following the
+     * same conditions as clipOutOpaqueElements(). With a visible background, that is the case for
+     * every element the background is not clipped out under: translucent lines and shapes, oval
+     * shapes, which only clip out their inscribed square, elements running the selection transition
+     * and outer texts. Inner texts overlap their shapes, and translucent strokes overlap the fill of
+     * their shapes, whatever the background.
+     *
+     * @return true if any pixel is painted more than once.
+     */
+    private boolean hasOverlappingElements() {
+        boolean background = Color.alpha(mBgColor) != 0;
+        for (int state = 0; state < mStateInnerTxtSizes.length; state++) {
+            if (mStateInnerTxtSizes[state] > 0 || (background && mStateOuterTxtSizes[state] > 0)) {
+                return true;
+            }
+        }
+
+        StepGeometry geometry = getGeometry(true);
+        for (int column = 0; column < mVisibleElements; column++) {
+            int i = mFirstVisible + column;
+            int state = getItemState(i);
+            if (isInTransition(i, state)) {
+                // Colors of both states are interpolated.
+                int fromState = state == STATE_SELECTED ? STATE_NOT_SELECTED : STATE_SELECTED;
+                if (background || isStrokeOverFill(i, state) || isStrokeOverFill(i, fromState)) {
+                    return true;
+                }
+                continue;
+            }
+            if (isStrokeOverFill(i, state)) {
+                return true;
+            }
+            if (background && ((geometry.hasLeftLine(column) && !isLineOpaque(i, false)) ||
+                    (geometry.hasRightLine(column) && !isLineOpaque(i, true)) ||
+                    (geometry.getShapeSize(column) > 0 &&
+                            (mShapesDrawable != SHAPE_DRAWABLE_RECTANGLE || !isShapeOpaque(i, state))))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether an element is running the selection transition, with its size and colors
+     * interpolated between its previous and its current state.
+     *
+     * @param i     is the index of the element.
+     * @param state is the current state of the element.
+     * @return true if the element is being interpolated.
+     */
+    private boolean isInTransition(int i, int state) {
+        return mSelectionFraction < 1f && state != STATE_NOT_CLICKABLE &&
+                (i == mAnimatedFrom || i == mAnimatedTo);
+    }
+
+    /**
+     * Check whether a line of an element is drawn fully opaque, including the part reached by the
+     * progress.
+     *
+     * @param i     is the index of the element.
+     * @param right is true for the line to the right of the element, false for the left one.
+     * @return true if the line is opaque.
+     */
+    private boolean isLineOpaque(int i, boolean right) {
+        if (!Float.isNaN(mProgress) && Color.alpha(mProgressColor) != 0xFF) {
+            return false;
+        }
+        // The line to the right of the last clickable element has "not clickable" style.
+        int color = i < (right ? mClickables - 1 : mClickables) ? mUnselectedLinesColor :
+                mNotClickableLinesColor;
+        return Color.alpha(color) == 0xFF;
+    }
+
+    /**
+     * Check whether the shape of an element is drawn fully opaque. Stroke shapes are opaque if both
+     * their fill and their stroke are opaque.
+     *
+     * @param i     is the index of the element.
+     * @param state is the state the shape is drawn with.
+     * @return true if the shape is opaque.
+     */
+    private boolean isShapeOpaque(int i, int state) {
+        if (isReachedByProgress(i)) {
+            return Color.alpha(mProgressColor) == 0xFF;
+        }
+        return Color.alpha(mStateBgColors[state]) == 0xFF &&
+                (mStateShapeStyles[state] != SHAPE_STYLE_STROKE ||
+                        Color.alpha(mStateLinesColors[state]) == 0xFF);
+    }
+
+    /**
+     * Check whether the stroke of the shape of an element is drawn over its fill, which drawShape()
+     * only avoids for opaque strokes.
+     *
+     * @param i     is the index of the element.
+     * @param state is the state the shape is drawn with.
+     * @return true if the stroke overlaps the fill.
+     */
+    private boolean isStrokeOverFill(int i, int state) {
+        int strokeColor = isReachedByProgress(i) ? mProgressColor : mStateLinesColors[state];
+        return mStateShapeStyles[state] == SHAPE_STYLE_STROKE && Color.alpha(strokeColor) != 0xFF;
+    }
+
+    /**
+     * Exclude a rectangle from the clip, snapped inward to whole pixels. Elements sit at fractional
+     * positions and shapes are drawn anti-aliased, so pixels on their edges are only partly covered
+     * and must still get the background under them.
+     *
+     * @param canvas is the canvas received in onDraw().
+     * @param left   is the left edge of the element, in pixels.
+     * @param top    is the top edge of the element, in pixels.
+     * @param right  is the right edge of the element, in pixels.
+     * @param bottom is the bottom edge of the element, in pixels.
+     */
+    private static void clipOutRect(Canvas canvas, float left, float top, float right, float bottom) {
+        int l = (int) Math.ceil(left);
+        int t = (int) Math.ceil(top);
+        int r = (int) Math.floor(right);
+        int b = (int) Math.floor(bottom);
+        if (l >= r || t >= b) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            canvas.clipOutRect(l, t, r, b);
+        } else {
+            canvas.clipRect(l, t, r, b, Region.Op.DIFFERENCE);
+        }
+    }
+
+    /**
+     * Draw the label of an element horizontally centered, using its cached width.
+     *
+     * @param canvas   is the canvas received in onDraw().
+     * @param i        is the index of the element.
+     * @param measures is the Measures object for the text size of the label.
+     * @param color    is the text color.
+     * @param centerX  is the x coordinate of the center of the label.
+     * @param baseline is the y coordinate of the baseline of the label.
+     */
+    private void drawLabel(Canvas canvas, int i, StepLabelCache.Measures measures, int color,
+                           float centerX, float baseline) {
+        mTextPaint.setTextSize(measures.textSize);
+        mTextPaint.setColor(color);
+        canvas.drawText(mLabelCache.getLabel(i), centerX - mLabelCache.getWidth(measures, i) / 2f,
+                baseline, mTextPaint);
+    }
+
+    /**
+     * Draw a shape into mShapeRect, the same way a GradientDrawable with the given style would
+     * draw it. If the stroke is opaque, the fill stops at the inner edge of the stroke instead of
+     * being painted under it.
+     *
+     * @param canvas      is the canvas received in onDraw().
+     * @param style       is SHAPE_STYLE_SOLID or SHAPE_STYLE_STROKE.
+     * @param bgColor     is the fill color.
+     * @param strokeColor is the stroke color, only used with stroke style.
+     */
+    private void drawShape(Canvas canvas, int style, int bgColor, int strokeColor) {
+        boolean stroke = style == SHAPE_STYLE_STROKE;
+        if (stroke) {
+            // GradientDrawable insets both the fill and the stroke by half the stroke width.
+            float inset = mLinesHeightPx / 2f;
+            mShapeRect.inset(inset, inset);
+        }
+
+        mShapePaint.setStyle(Paint.Style.FILL);
+        mShapePaint.setColor(bgColor);
+        if (stroke && Color.alpha(strokeColor) == 0xFF) {
+            float inset = mLinesHeightPx / 2f;
+            mShapeRect.inset(inset, inset);
+            drawShapeRect(canvas);
+            mShapeRect.inset(-inset, -inset);
+        } else {
+            drawShapeRect(canvas);
+        }
+
+        if (stroke) {
+            mShapePaint.setStyle(Paint.Style.STROKE);
+            mShapePaint.setStrokeWidth(mLinesHeightPx);
+            mShapePaint.setColor(strokeColor);
+            drawShapeRect(canvas);
+        }
+    }
+
+    private void drawShapeRect(Canvas canvas) {
+        if (mShapesDrawable == SHAPE_DRAWABLE_RECTANGLE) {
+            canvas.drawRect(mShapeRect, mShapePaint);
+        } else {
+            canvas.drawOval(mShapeRect, mShapePaint);
+        }
+    }
+
+    /**
+     * Cache the position of the elements after a layout pass, so that touches can be mapped to
+     * elements with plain arithmetic. Every element takes the same width in both render modes.
+     */
+    private void updateStepPositions() {
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            StepGeometry geometry = getGeometry(true);
+            mStepsLeft = getPaddingLeft();
+            mStepWidth = geometry.getStepWidth();
+            mStepsCenterY = getPaddingTop() + getOuterTextsHeight() + geometry.getCenterY();
+        } else if (mElements != null) {
+            // Wrappers are nested into the inflated layout, so add up their offsets to this view.
+            View element = mElements.get(0);
+            float left = 0;
+            float top = 0;
+            for (View view = element; view != this; view = (View) view.getParent()) {
+                left += view.getLeft();
+                top += view.getTop();
+            }
+            mStepsLeft = left;
+            mStepWidth = element.getWidth();
+            mStepsCenterY = top + element.getHeight() / 2f;
+        }
+    }
+
+    /**
+     * Get the first element of the window of visible elements. Bars drawn in views mode show every
+     * element.
+     *
+     * @return the 0-based index of the element.
+     */
+    private int getFirstElement() {
+        return mRenderMode == RENDER_MODE_CANVAS ? mFirstVisible : 0;
+    }
+
+    /**
+     * Get the area of a visible element: its column, from the top to the bottom of this view.
+     *
+     * @param i      is the 0-based index of the element.
+     * @param bounds is the Rect to store the area into, relative to this view. It is left empty if
+     *               the element is not visible.
+     */
+    private void getElementBounds(int i, Rect bounds) {
+        int column = i - getFirstElement();
+        if (column < 0 || column >= mVisibleElements || mStepWidth <= 0) {
+            bounds.setEmpty();
+            return;
+        }
+        float left, width;
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            StepGeometry geometry = getGeometry(true);
+            left = mStepsLeft + geometry.getStepLeft(column);
+            width = geometry.getStepWidth();
+        } else {
+            left = mStepsLeft + mStepWidth * column;
+            width = mStepWidth;
+        }
+        bounds.set((int) left, 0, (int) (left + width), getHeight());
+    }
+
+    /**
+     * Notify the listener of the selected element now, replacing any notification pending for
+     * next frame.
+     */
+    private void notifyInteraction() {
+        if (mInteractionPending) {
+            Choreographer.getInstance().removeFrameCallback(mInteractionFrameCallback);
+            mInteractionPending = false;
+        }
+        if (mListener != null) {
+            mListener.onInteraction(mSelected);
+        }
+    }
+
+    /**
+     * Find the clickable element whose shape contains the given point.
+     *
+     * @param x is the x coordinate of the point, relative to this view.
+     * @param y is the y coordinate of the point, relative to this view.
+     * @return the index of the element, or -1 if there is no clickable shape at that point.
+     */
+    private int getElementAt(float x, float y) {
+        int column = getColumnAt(x);
+        int i = getFirstElement() + column;
+        if (column < 0 || column >= mVisibleElements || i >= mClickables) {
+            return -1;
+        }
+
+        float centerX, halfShape;
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            StepGeometry geometry = getGeometry(true);
+            centerX = mStepsLeft + geometry.getCenterX(column);
+            halfShape = geometry.getShapeSize(column) / 2f;
+        } else {
+            centerX = mStepsLeft + mStepWidth * column + mStepWidth / 2f;
+            halfShape = mAppliedItemStyles[i].shapeSize / 2f;
+        }
+        if (Math.abs(x - centerX) > halfShape || Math.abs(y - mStepsCenterY) > halfShape) {
+            return -1;
+        }
+        return i;
+    }
+
+    /**
+     * Find the column of the window of visible elements containing the given horizontal position.
+     * Canvas mode reads it from the geometry it draws with, and views mode from the cached
+     * position of the wrappers of the elements.
+     *
+     * @param x is the x coordinate, relative to this view.
+     * @return the column, which may be out of the window, or -1 if the bar has not been laid out.
+     */
+    private int getColumnAt(float x) {
+        if (mRenderMode == RENDER_MODE_CANVAS) {
+            return getGeometry(true).getColumnAt(x - mStepsLeft);
+        }
+        return mStepWidth > 0 ? (int) Math.floor((x - mStepsLeft) / mStepWidth) : -1;
+    }
+
+    /**
+     * Find the clickable element closest to the given horizontal position, while scrubbing.
+     *
+     * @param x is the x coordinate of the touch, relative to this view.
+     * @return the index of the element.
+     */
+    private int getScrubbedElementAt(float x) {
+        int column = Math.max(0, Math.min(getColumnAt(x), mVisibleElements - 1));
+        return Math.min(getFirstElement() + column, mClickables - 1);
+    }
+
+    /**
+     * Select a touched element. In canvas mode, the window of visible elements is not moved while
+     * scrubbing, so that elements don't slide under the finger.
+     *
+     * @param index      is the 0-based index of the element to select.
+     * @param moveWindow is true to center the window of visible elements on the selected element.
+     */
+    private void selectTouchedItem(int index, boolean moveWindow) {
+        if (mRenderMode != RENDER_MODE_CANVAS) {
+            selectItem(index, true);
+            return;
+        }
+
+        int oldSelected = mSelected;
+        int oldFirstVisible = mFirstVisible;
+        float oldShapesHeight = getShapesHeight();
+        mSelected = index + 1;
+        if (oldSelected != mSelected) {
+            countStateTransition();
+        }
+        if (moveWindow) {
+            centerWindowOnSelected();
+        }
+        animateSelection(oldSelected);
+        invalidateSelectionChange(oldSelected, oldFirstVisible, oldShapesHeight);
+        mAccessibilityHelper.invalidateRoot();
+    }
+
+    /**
+     * Invalidate what a change of the selected element changes in canvas mode. A layout pass is
+     * only requested if the height of the row of shapes changed. Hardware-accelerated windows
+     * record the whole display list of the view again whatever the dirty area, so there the whole
+     * bar is invalidated. Software-rendered windows only redraw the dirty area, so there only the
+     * columns of the previous and the new selected elements are invalidated, as lines belong to the
+     * column of their element and their colors don't depend on the selection, unless the window of
+     * visible elements moved.
+     *
+     * @param oldSelected     is the 1-based index of the previous selected element.
+     * @param oldFirstVisible is the first visible element before the change.
+     * @param oldShapesHeight is the height of the row of shapes before the change.
+     */
+    private void invalidateSelectionChange(int oldSelected, int oldFirstVisible, float oldShapesHeight) {
+        if (getShapesHeight() != oldShapesHeight) {
+            requestLayout();
+            invalidate();
+        } else if (isHardwareAccelerated() || mFirstVisible != oldFirstVisible) {
+            invalidate();
+        } else {
+            invalidateElement(oldSelected - 1);
+            invalidateElement(mSelected - 1);
+        }
+    }
+
+    /**
+     * Get half the width of the area an element can draw into: its column, or its shape or its
+     * labels if they are wider than the column.
+     *
+     * @param geometry is the current geometry of the bar.
+     * @param i        is the 0-based index of the element.
+     * @return half the width in pixels.
+     */
+    private float getElementHalfWidth(StepGeometry geometry, int i) {
+        float width = Math.max(geometry.getStepWidth(), geometry.getRowHeight());
+        for (int state = 0; state < mStateInnerTxtSizes.length; state++) {
+            if (mStateInnerTxtSizes[state] > 0) {
+                width = Math.max(width, mLabelCache.getWidth(
+                        mLabelCache.getMeasures(mStateInnerTxtSizes[state]), i));
+            }
+            if (mStateOuterTxtSizes[state] > 0) {
+                width = Math.max(width, mLabelCache.getWidth(
+                        mLabelCache.getMeasures(mStateOuterTxtSizes[state]), i));
+            }
+        }
+        return width / 2f;
+    }
+
+    /**
+     * Invalidate the column of a single element in canvas mode: its shape, its lines and its
+     * labels. Elements out of the window of visible elements are not drawn, so they are ignored.
+     * Only used in software-rendered windows, see invalidateSelectionChange().
+     *
+     * @param i is the 0-based index of the element.
+     */
+    @SuppressWarnings("deprecation")
+    private void invalidateElement(int i) {
+        int column = i - mFirstVisible;
+        if (i < 0 || column < 0 || column >= mVisibleElements) {
+            return;
+        }
+        StepGeometry geometry = getGeometry(true);
+        float centerX = getPaddingLeft() + geometry.getCenterX(column);
+        float halfWidth = getElementHalfWidth(geometry, i);
+        // Antialiased edges can bleed into the neighbouring pixels.
+        invalidate((int) Math.floor(centerX - halfWidth) - 1, 0,
+                (int) Math.ceil(centerX + halfWidth) + 1, getHeight());
+        if (mMetrics != null) {
+            mMetrics.invalidations++;
         }
-        shapeBg.setColor(colorStateList);
-        shapeTextView.setBackground(shapeBg);
     }
 }
@@ -0,0 +1,173 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scheduler of the changes of many NavigationStatusBars, such as the bars of a dashboard updated
+ * from the same stream of events.
+ * <p>
+ * Bars attached to a scheduler through NavigationStatusBar.setScheduler() don't post their own
+ * frame callbacks: changes published to them from any thread are collected here and applied in a
+ * single Choreographer frame callback. Bars are updated in the order they were attached to the
+ * scheduler, and updates stop when the frame budget is spent, so a burst of events never stalls a
+ * frame: bars not updated yet keep their merged changes and are updated first in the next frame.
+ * The same callback reads the progress of every bar showing one.
+ */
+public final class NavigationStatusBarScheduler {
+
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000L;
+
+    private static final Comparator<NavigationStatusBar> ATTACH_ORDER = new Comparator<NavigationStatusBar>() {
+        @Override
+        public int compare(NavigationStatusBar a, NavigationStatusBar b) {
+            return Integer.compare(a.getSchedulerOrder(), b.getSchedulerOrder());
+        }
+    };
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    private final long mFrameBudgetNanos;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<NavigationStatusBar> mScheduled = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mFramePosted = new AtomicBoolean();
+
+    // Main thread only.
+    private final ArrayList<NavigationStatusBar> mPending = new ArrayList<>();
+    private final ArrayList<NavigationStatusBar> mIncoming = new ArrayList<>();
+    private final ArrayList<NavigationStatusBar> mPolling = new ArrayList<>();
+    private int mNextOrder;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            runFrame();
+        }
+    };
+
+    private final Runnable mPostFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    public NavigationStatusBarScheduler() {
+        this(DEFAULT_FRAME_BUDGET_NANOS);
+    }
+
+    /**
+     * Create a scheduler. It can be created from any thread, but it always runs on the main thread.
+     *
+     * @param frameBudgetNanos is the time each frame can spend updating bars, in nanoseconds. At
+     *                         least one bar is updated per frame, whatever the budget.
+     */
+    public NavigationStatusBarScheduler(long frameBudgetNanos) {
+        mFrameBudgetNanos = frameBudgetNanos;
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    /**
+     * Get the position of a bar being attached to this scheduler. Must be called from the main
+     * thread.
+     *
+     * @return the order of the bar, greater than the order of every bar attached before.
+     */
+    int nextOrder() {
+        return mNextOrder++;
+    }
+
+    /**
+     * Schedule a bar with pending changes. This method can be called from any thread, and it must
+     * be called once per batch of changes: bars only call it when they have no update scheduled.
+     * Only the first bar scheduled after a frame posts the frame callback, which briefly takes the
+     * lock of the message queue of the main thread if it is called from another thread.
+     *
+     * @param bar is the bar whose changes must be applied.
+     */
+    void schedule(NavigationStatusBar bar) {
+        mScheduled.offer(bar);
+        postFrame();
+    }
+
+    /**
+     * Read the progress of a bar once per frame, until it stops showing a progress. Must be called
+     * from the main thread.
+     *
+     * @param bar is the bar showing a progress.
+     */
+    void pollProgress(NavigationStatusBar bar) {
+        mPolling.add(bar);
+        postFrame();
+    }
+
+    private void postFrame() {
+        if (mFramePosted.compareAndSet(false, true)) {
+            // Choreographer instances are per thread, so the frame callback must be posted from the
+            // main thread.
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            } else {
+                mMainHandler.post(mPostFrameRunnable);
+            }
+        }
+    }
+
+    /**
+     * Apply the pending changes of the scheduled bars, within the frame budget. Called from the
+     * frame callback of this scheduler.
+     */
+    void runFrame() {
+        long start = System.nanoTime();
+
+        // Allow new changes to post another frame before taking the scheduled bars, so that no bar
+        // scheduled from now on can be missed.
+        mFramePosted.set(false);
+
+        // Reading a progress only invalidates its bar, so it is not limited by the budget.
+        for (int i = mPolling.size() - 1; i >= 0; i--) {
+            if (!mPolling.get(i).pollProgress()) {
+                mPolling.remove(i);
+            }
+        }
+
+        NavigationStatusBar bar;
+        while ((bar = mScheduled.poll()) != null) {
+            mIncoming.add(bar);
+        }
+        Collections.sort(mIncoming, ATTACH_ORDER);
+        mPending.addAll(mIncoming);
+        mIncoming.clear();
+
+        // Bars left over from previous frames go first.
+        int updated = 0;
+        while (updated < mPending.size()) {
+            mPending.get(updated).applyScheduledChanges();
+            updated++;
+            if (System.nanoTime() - start >= mFrameBudgetNanos) {
+                break;
+            }
+        }
+        mPending.subList(0, updated).clear();
+
+        if (!mPending.isEmpty() || !mPolling.isEmpty()) {
+            postFrame();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Immutable state of a NavigationStatusBar: number of elements, number of clickable elements,
+ * selected element and, optionally, custom labels. States are meant to be created once per item of
+ * a list and bound to recycled bars through NavigationStatusBar.bind(), which only applies what
+ * differs from the state currently shown.
+ */
+public final class NavigationStatusBarState {
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    private final int mTotal, mClickables, mSelected;
+    private final String[] mLabels;
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    public NavigationStatusBarState(int total, int clickables, int selected) {
+        this(total, clickables, selected, null);
+    }
+
+    /**
+     * Create a state. Values are limited the same way as the XML attributes: there is at least one
+     * element, and there can't be more clickable elements than elements, nor a selected element
+     * beyond the clickable ones.
+     *
+     * @param total      is the number of elements.
+     * @param clickables is the number of clickable elements.
+     * @param selected   is the 1-based index of the selected element.
+     * @param labels     is the array of custom labels, or null to show element numbers. It is
+     *                   copied, so later changes to the array don't change this state.
+     */
+    public NavigationStatusBarState(int total, int clickables, int selected,
+                                    @Nullable String[] labels) {
+        mTotal = total < 1 ? 1 : total;
+        mClickables = clickables > mTotal ? mTotal : clickables;
+        mSelected = selected > mClickables ? mClickables : selected;
+        mLabels = labels != null ? labels.clone() : null;
+    }
+
+    public int getTotalElements() {
+        return mTotal;
+    }
+
+    public int getClickableElements() {
+        return mClickables;
+    }
+
+    public int getSelectedElement() {
+        return mSelected;
+    }
+
+    /**
+     * Get the custom labels of this state.
+     *
+     * @return a copy of the labels, or null if element numbers are shown.
+     */
+    @Nullable
+    public String[] getLabels() {
+        return mLabels != null ? mLabels.clone() : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NavigationStatusBarState)) {
+            return false;
+        }
+        NavigationStatusBarState state = (NavigationStatusBarState) o;
+        return mTotal == state.mTotal && mClickables == state.mClickables &&
+                mSelected == state.mSelected && Arrays.equals(mLabels, state.mLabels);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mTotal;
+        result = 31 * result + mClickables;
+        result = 31 * result + mSelected;
+        result = 31 * result + Arrays.hashCode(mLabels);
+        return result;
+    }
+
+    /**
+     * Get the custom labels without copying them, for NavigationStatusBar, which never modifies
+     * them.
+     *
+     * @return the labels, or null if element numbers are shown.
+     */
+    String[] getLabelsArray() {
+        return mLabels;
+    }
+}
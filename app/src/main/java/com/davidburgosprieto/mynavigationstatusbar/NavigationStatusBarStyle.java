@@ -0,0 +1,190 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Attributes of a NavigationStatusBar, parsed once and shared by every bar created with the same
+ * attribute values and the same theme.
+ * <p>
+ * Parsing the attributes through obtainStyledAttributes() is the most expensive part of creating a
+ * bar, and it gives the same result for every bar of a screen sharing a style. So parsed styles are
+ * cached per theme, keyed by the raw values of the NavigationStatusBar attributes of the
+ * AttributeSet and its style attribute. Other attributes, such as ids or layout parameters, don't
+ * split the cache. Sizes are kept in the units of the attributes, so styles don't depend on the
+ * density of the screen.
+ */
+final class NavigationStatusBarStyle {
+
+    private static final int MAX_ENTRIES_PER_THEME = 16;
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    // Themes are weakly referenced, so caches are dropped together with their activities.
+    private static final WeakHashMap<Resources.Theme, LruCache<Key, NavigationStatusBarStyle>>
+            sCaches = new WeakHashMap<>();
+
+    final int bgColor, total, clickables, selected, selectedBgColor, selectedInnerTxtColor,
+            selectedOuterTxtColor, selectedInnerTxtSize, selectedOuterTxtSize, selectedShapeStyle,
+            selectedShapeSize, unselectedBgColor, unselectedInnerTxtColor, unselectedOuterTxtColor,
+            unselectedInnerTxtSize, unselectedOuterTxtSize, unselectedShapeStyle,
+            unselectedShapeSize, unselectedLinesColor, notClickableBgColor,
+            notClickableInnerTxtColor, notClickableOuterTxtColor, notClickableInnerTxtSize,
+            notClickableOuterTxtSize, notClickableShapeStyle, notClickableShapeSize,
+            notClickableLinesColor, shapesDrawable, linesHeight, renderMode, visibleElements,
+            selectionAnimationDuration, progressColor;
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    /**
+     * Get the parsed attributes of a bar, parsing them only if no bar has been created before with
+     * the same attribute values and theme.
+     *
+     * @param context is the context of the bar, whose theme resolves the attributes.
+     * @param set     is the AttributeSet of the bar.
+     * @return the shared parsed attributes.
+     */
+    static NavigationStatusBarStyle obtain(Context context, AttributeSet set) {
+        Resources.Theme theme = context.getTheme();
+        Key key = new Key(set);
+        synchronized (sCaches) {
+            LruCache<Key, NavigationStatusBarStyle> cache = sCaches.get(theme);
+            if (cache == null) {
+                cache = new LruCache<>(MAX_ENTRIES_PER_THEME);
+                sCaches.put(theme, cache);
+            }
+            NavigationStatusBarStyle style = cache.get(key);
+            if (style == null) {
+                style = new NavigationStatusBarStyle(context, set);
+                cache.put(key, style);
+            }
+            return style;
+        }
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private NavigationStatusBarStyle(Context context, AttributeSet set) {
+        // Default values.
+        Resources res = context.getResources();
+        int bgColorDefValue = res.getColor(R.color.colorPrimaryDark);
+        int disabledBgColorDefValue = res.getColor(android.R.color.darker_gray);
+        int txtSizeDefValue = 0;
+        int lineHeightDefValue = 4;
+        int shapeSizeDefValue = 30;
+
+        // Obtain a TypedArray with all elements defined in attrs.xml and initialise member
+        // variables with the values input through this TypedArray, also providing default values in
+        // case no value for that attribute was input by the user.
+        TypedArray ta = context.obtainStyledAttributes(set, R.styleable.NavigationStatusBar);
+
+        bgColor = ta.getColor(R.styleable.NavigationStatusBar_bg_color, bgColorDefValue);
+        total = ta.getInt(R.styleable.NavigationStatusBar_total_elements, NavigationStatusBar.MAX_ELEMENTS);
+        clickables = ta.getInt(R.styleable.NavigationStatusBar_clickable_elements, NavigationStatusBar.MAX_ELEMENTS);
+        selected = ta.getInt(R.styleable.NavigationStatusBar_selected_element, 1);
+
+        selectedBgColor = ta.getColor(R.styleable.NavigationStatusBar_selected_bg_color, bgColorDefValue);
+        selectedInnerTxtColor = ta.getColor(R.styleable.NavigationStatusBar_selected_inner_txt_color, bgColorDefValue);
+        selectedOuterTxtColor = ta.getColor(R.styleable.NavigationStatusBar_selected_outer_txt_color, bgColorDefValue);
+        selectedInnerTxtSize = ta.getInt(R.styleable.NavigationStatusBar_selected_inner_txt_size, txtSizeDefValue);
+        selectedOuterTxtSize = ta.getInt(R.styleable.NavigationStatusBar_selected_outer_txt_size, txtSizeDefValue);
+        selectedShapeStyle = ta.getInt(R.styleable.NavigationStatusBar_selected_shape_style, NavigationStatusBar.SHAPE_STYLE_SOLID);
+        selectedShapeSize = ta.getInt(R.styleable.NavigationStatusBar_selected_shape_size, shapeSizeDefValue);
+
+        unselectedBgColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_bg_color, bgColorDefValue);
+        unselectedInnerTxtColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_inner_txt_color, bgColorDefValue);
+        unselectedOuterTxtColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_outer_txt_color, bgColorDefValue);
+        unselectedInnerTxtSize = ta.getInt(R.styleable.NavigationStatusBar_unselected_inner_txt_size, txtSizeDefValue);
+        unselectedOuterTxtSize = ta.getInt(R.styleable.NavigationStatusBar_unselected_outer_txt_size, txtSizeDefValue);
+        unselectedShapeStyle = ta.getInt(R.styleable.NavigationStatusBar_unselected_shape_style, NavigationStatusBar.SHAPE_STYLE_SOLID);
+        unselectedShapeSize = ta.getInt(R.styleable.NavigationStatusBar_unselected_shape_size, shapeSizeDefValue);
+        unselectedLinesColor = ta.getColor(R.styleable.NavigationStatusBar_unselected_lines_color, bgColorDefValue);
+
+        notClickableBgColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_bg_color, disabledBgColorDefValue);
+        notClickableInnerTxtColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_inner_txt_color, disabledBgColorDefValue);
+        notClickableOuterTxtColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_outer_txt_color, disabledBgColorDefValue);
+        notClickableInnerTxtSize = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_inner_txt_size, txtSizeDefValue);
+        notClickableOuterTxtSize = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_outer_txt_size, txtSizeDefValue);
+        notClickableShapeStyle = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_shape_style, NavigationStatusBar.SHAPE_STYLE_SOLID);
+        notClickableShapeSize = ta.getInt(R.styleable.NavigationStatusBar_not_clickable_shape_size, shapeSizeDefValue);
+        notClickableLinesColor = ta.getColor(R.styleable.NavigationStatusBar_not_clickable_lines_color, bgColorDefValue);
+
+        shapesDrawable = ta.getInt(R.styleable.NavigationStatusBar_shape_drawable, NavigationStatusBar.SHAPE_DRAWABLE_OVAL);
+        linesHeight = ta.getInt(R.styleable.NavigationStatusBar_lines_height, lineHeightDefValue);
+        renderMode = ta.getInt(R.styleable.NavigationStatusBar_render_mode, NavigationStatusBar.RENDER_MODE_VIEWS);
+        visibleElements = ta.getInt(R.styleable.NavigationStatusBar_visible_elements, NavigationStatusBar.MAX_ELEMENTS);
+        selectionAnimationDuration = ta.getInt(R.styleable.NavigationStatusBar_selection_animation_duration, 0);
+        progressColor = ta.getColor(R.styleable.NavigationStatusBar_progress_color, selectedBgColor);
+
+        ta.recycle();
+    }
+
+    /**
+     * Cache key: the style attribute of the AttributeSet and the raw values of its
+     * NavigationStatusBar attributes, in the order they are declared.
+     */
+    private static class Key {
+        final int styleAttribute;
+        final int[] names;
+        final String[] values;
+
+        Key(AttributeSet set) {
+            styleAttribute = set.getStyleAttribute();
+            int count = 0;
+            int[] names = new int[set.getAttributeCount()];
+            String[] values = new String[names.length];
+            for (int i = 0; i < names.length; i++) {
+                int name = set.getAttributeNameResource(i);
+                if (isStyleableAttribute(name)) {
+                    names[count] = name;
+                    values[count] = set.getAttributeValue(i);
+                    count++;
+                }
+            }
+            this.names = Arrays.copyOf(names, count);
+            this.values = Arrays.copyOf(values, count);
+        }
+
+        private static boolean isStyleableAttribute(int name) {
+            for (int attr : R.styleable.NavigationStatusBar) {
+                if (attr == name) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return styleAttribute == key.styleAttribute && Arrays.equals(names, key.names) &&
+                    Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = styleAttribute;
+            result = 31 * result + Arrays.hashCode(names);
+            result = 31 * result + Arrays.hashCode(values);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of the backgrounds used by the shapes of every NavigationStatusBar.
+ * <p>
+ * Backgrounds are built once per combination of shape, style, colors and size, and only their
+ * ConstantState is kept. Every view gets its own Drawable from that shared state, and shared states
+ * are never mutated: changing the style of a shape means setting a different background, not
+ * modifying the current one. Sizes and stroke widths are already in pixels, so Drawables are created
+ * without Resources: creating them for the density of a Resources would scale the shared state
+ * into a new one.
+ */
+class ShapeDrawableCache {
+
+    private static final int MAX_ENTRIES = 32;
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    private static final LruCache<Key, Drawable.ConstantState> sCache = new LruCache<>(MAX_ENTRIES);
+    private static final Key sLookupKey = new Key();
+
+    private ShapeDrawableCache() {
+    }
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    /**
+     * Get a background for a shape.
+     *
+     * @param shape       is NavigationStatusBar.SHAPE_DRAWABLE_OVAL or SHAPE_DRAWABLE_RECTANGLE.
+     * @param style       is NavigationStatusBar.SHAPE_STYLE_SOLID or SHAPE_STYLE_STROKE.
+     * @param color       is the fill color.
+     * @param strokeWidth is the stroke width in pixels, only used with stroke style.
+     * @param strokeColor is the stroke color, only used with stroke style.
+     * @param size        is the width and height of the shape in pixels.
+     * @return a new Drawable sharing its state with every other background of the same kind.
+     */
+    static Drawable getDrawable(int shape, int style, int color, int strokeWidth, int strokeColor,
+                                int size) {
+        // Stroke values are meaningless for solid shapes, so don't let them split the cache.
+        if (style != NavigationStatusBar.SHAPE_STYLE_STROKE) {
+            strokeWidth = 0;
+            strokeColor = 0;
+        }
+
+        Drawable.ConstantState state;
+        synchronized (sLookupKey) {
+            sLookupKey.set(shape, style, color, strokeWidth, strokeColor, size);
+            state = sCache.get(sLookupKey);
+            if (state == null) {
+                state = createDrawable(shape, style, color, strokeWidth, strokeColor, size)
+                        .getConstantState();
+                Key key = new Key();
+                key.set(shape, style, color, strokeWidth, strokeColor, size);
+                sCache.put(key, state);
+            }
+        }
+        return state.newDrawable();
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private static GradientDrawable createDrawable(int shape, int style, int color, int strokeWidth,
+                                                   int strokeColor, int size) {
+        GradientDrawable drawable = new GradientDrawable();
+        drawable.setShape(shape == NavigationStatusBar.SHAPE_DRAWABLE_RECTANGLE ?
+                GradientDrawable.RECTANGLE : GradientDrawable.OVAL);
+        drawable.setColor(color);
+        if (style == NavigationStatusBar.SHAPE_STYLE_STROKE) {
+            drawable.setStroke(strokeWidth, strokeColor);
+        }
+        drawable.setSize(size, size);
+        return drawable;
+    }
+
+    /**
+     * Cache key. A single instance is reused for lookups, so only cache misses allocate a new key.
+     */
+    private static class Key {
+        int shape, style, color, strokeWidth, strokeColor, size;
+
+        void set(int shape, int style, int color, int strokeWidth, int strokeColor, int size) {
+            this.shape = shape;
+            this.style = style;
+            this.color = color;
+            this.strokeWidth = strokeWidth;
+            this.strokeColor = strokeColor;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return shape == key.shape && style == key.style && color == key.color &&
+                    strokeWidth == key.strokeWidth && strokeColor == key.strokeColor &&
+                    size == key.size;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = shape;
+            result = 31 * result + style;
+            result = 31 * result + color;
+            result = 31 * result + strokeWidth;
+            result = 31 * result + strokeColor;
+            result = 31 * result + size;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Background of the shape of an element while the selection transition runs in views mode.
+ * <p>
+ * The background of the previous state of the element is drawn first, and the background of its
+ * new state is drawn over it with an alpha that follows the fraction of the transition, so that
+ * fill and stroke colors are interpolated without creating or mutating any Drawable on each frame.
+ * Both backgrounds must belong to the same element, as their bounds and alpha are changed here.
+ */
+final class ShapeTransitionDrawable extends Drawable {
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    private Drawable mFrom, mTo;
+    private float mFraction;
+    private int mAlpha = 0xFF;
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    /**
+     * Set the backgrounds to interpolate.
+     *
+     * @param from is the background of the previous state, shown at fraction 0.
+     * @param to   is the background of the new state, shown at fraction 1.
+     */
+    void setBackgrounds(Drawable from, Drawable to) {
+        if (from == mFrom && to == mTo) {
+            return;
+        }
+        mFrom = from;
+        mTo = to;
+        from.setBounds(getBounds());
+        to.setBounds(getBounds());
+        invalidateSelf();
+    }
+
+    void setFraction(float fraction) {
+        if (fraction != mFraction) {
+            mFraction = fraction;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mFrom == null) {
+            return;
+        }
+        mFrom.setAlpha(mAlpha);
+        mFrom.draw(canvas);
+        mTo.setAlpha(Math.round(mAlpha * mFraction));
+        mTo.draw(canvas);
+
+        // Both backgrounds are set again into the shape once the transition ends.
+        mFrom.setAlpha(0xFF);
+        mTo.setAlpha(0xFF);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (alpha != mAlpha) {
+            mAlpha = alpha;
+            invalidateSelf();
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        if (mFrom != null) {
+            mFrom.setColorFilter(colorFilter);
+            mTo.setColorFilter(colorFilter);
+        }
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    /**
+     * Get the intrinsic size of the background of the new state, so that setting this drawable
+     * into the shape, or setting that background back, never requests a layout pass.
+     */
+    @Override
+    public int getIntrinsicWidth() {
+        return mTo != null ? mTo.getIntrinsicWidth() : -1;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mTo != null ? mTo.getIntrinsicHeight() : -1;
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        if (mFrom != null) {
+            mFrom.setBounds(bounds);
+            mTo.setBounds(bounds);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+/**
+ * Process-wide cache of rendered NavigationStatusBars, used by bars with snapshots enabled.
+ * <p>
+ * A snapshot is the whole bar rendered into a Bitmap, keyed by everything that changes what the bar
+ * looks like: its parsed style, its state, its size and padding, and the density and font scale of
+ * the screen. Bars with the same key look the same, so they share their snapshot. The cache is
+ * limited by the total size of its bitmaps, evicting the least recently used ones first. Bitmaps
+ * are never recycled on eviction, as they may still be referenced by a display list.
+ */
+class SnapshotCache {
+
+    static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    private static final LruCache<Key, Bitmap> sCache = new LruCache<Key, Bitmap>(DEFAULT_MAX_BYTES) {
+        @Override
+        protected int sizeOf(Key key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    private SnapshotCache() {
+    }
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    /**
+     * Set the memory budget of the cache, evicting snapshots if it is smaller than the current size.
+     *
+     * @param maxBytes is the maximum total size of the cached bitmaps, in bytes.
+     */
+    static void setMaxBytes(int maxBytes) {
+        sCache.resize(Math.max(maxBytes, 1));
+    }
+
+    /**
+     * Get the total size of the cached snapshots.
+     *
+     * @return the size in bytes.
+     */
+    static int getSize() {
+        return sCache.size();
+    }
+
+    static Bitmap get(Key key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * Cache a snapshot. The key is copied, so the given one can be reused.
+     *
+     * @param key    is the key of the snapshot.
+     * @param bitmap is the rendered bar.
+     */
+    static void put(Key key, Bitmap bitmap) {
+        Key copy = new Key();
+        copy.set(key);
+        sCache.put(copy, bitmap);
+    }
+
+    /**
+     * Snapshot key. Instances are mutable so that every bar can reuse its own keys on every frame,
+     * and only new snapshots allocate a new key. Labels are compared by content, with their hash
+     * computed once by StepLabelCache.
+     */
+    static class Key {
+        Object style;
+        String[] labels;
+        int labelsHash, renderMode, total, clickables, selected, firstVisible, progressBits, width,
+                height, paddingLeft, paddingTop, paddingRight, paddingBottom;
+        float density, scaledDensity;
+
+        void set(Key key) {
+            style = key.style;
+            labels = key.labels;
+            labelsHash = key.labelsHash;
+            renderMode = key.renderMode;
+            total = key.total;
+            clickables = key.clickables;
+            selected = key.selected;
+            firstVisible = key.firstVisible;
+            progressBits = key.progressBits;
+            width = key.width;
+            height = key.height;
+            paddingLeft = key.paddingLeft;
+            paddingTop = key.paddingTop;
+            paddingRight = key.paddingRight;
+            paddingBottom = key.paddingBottom;
+            density = key.density;
+            scaledDensity = key.scaledDensity;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return style == key.style && labelsHash == key.labelsHash &&
+                    renderMode == key.renderMode && total == key.total &&
+                    clickables == key.clickables && selected == key.selected &&
+                    firstVisible == key.firstVisible && progressBits == key.progressBits &&
+                    width == key.width &&
+                    height == key.height && paddingLeft == key.paddingLeft &&
+                    paddingTop == key.paddingTop && paddingRight == key.paddingRight &&
+                    paddingBottom == key.paddingBottom && density == key.density &&
+                    scaledDensity == key.scaledDensity && Arrays.equals(labels, key.labels);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(style);
+            result = 31 * result + labelsHash;
+            result = 31 * result + renderMode;
+            result = 31 * result + total;
+            result = 31 * result + clickables;
+            result = 31 * result + selected;
+            result = 31 * result + firstVisible;
+            result = 31 * result + progressBits;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + paddingLeft;
+            result = 31 * result + paddingTop;
+            result = 31 * result + paddingRight;
+            result = 31 * result + paddingBottom;
+            result = 31 * result + Float.floatToIntBits(density);
+            result = 31 * result + Float.floatToIntBits(scaledDensity);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+/**
+ * Positions of the elements (steps) of a NavigationStatusBar drawn in canvas mode, and of the lines
+ * connecting them, computed with plain arithmetic and no Android classes.
+ * <p>
+ * Every step of the window of visible steps takes the same width, with its shape centered into it
+ * and a line on each side running from the edge of the step to the edge of the shape. Positions
+ * are relative to the row of shapes: x from the left edge of the content, y from the top of the
+ * row. Results are cached until the configuration or the width change, so repeated measure, layout
+ * and draw passes at the same width cost only a comparison of the inputs.
+ */
+final class StepGeometry {
+
+    static final int STATE_NOT_SELECTED = 0;
+    static final int STATE_SELECTED = 1;
+    static final int STATE_NOT_CLICKABLE = 2;
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    // Configuration.
+    private int mTotal, mFirst, mVisible, mClickables, mSelected;
+    private final float[] mShapeSizes = new float[3];
+    private float mLineHeight;
+    private boolean mConfigured;
+
+    // Results, for the width they were computed for. Arrays are indexed by column into the window
+    // of visible steps, and lines that don't exist are stored as NaN.
+    private float mWidth = Float.NaN, mStepWidth, mRowHeight;
+    private float[] mCenters = new float[0], mSizes = new float[0], mLeftLineStarts = new float[0],
+            mLeftLineEnds = new float[0], mRightLineStarts = new float[0], mRightLineEnds = new float[0];
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    /**
+     * Set the configuration of the bar. Cached results are dropped only if anything changes.
+     *
+     * @param total            is the number of steps.
+     * @param first            is the 0-based index of the first visible step.
+     * @param visible          is the number of visible steps.
+     * @param clickables       is the number of clickable steps.
+     * @param selected         is the 1-based index of the selected step, or 0 if none.
+     * @param notSelectedSize  is the size of the shapes of not selected clickable steps.
+     * @param selectedSize     is the size of the shape of the selected step.
+     * @param notClickableSize is the size of the shapes of not clickable steps.
+     * @param lineHeight       is the height of the connecting lines.
+     */
+    void setConfiguration(int total, int first, int visible, int clickables, int selected,
+                          float notSelectedSize, float selectedSize, float notClickableSize,
+                          float lineHeight) {
+        if (mConfigured && total == mTotal && first == mFirst && visible == mVisible &&
+                clickables == mClickables && selected == mSelected &&
+                notSelectedSize == mShapeSizes[STATE_NOT_SELECTED] &&
+                selectedSize == mShapeSizes[STATE_SELECTED] &&
+                notClickableSize == mShapeSizes[STATE_NOT_CLICKABLE] && lineHeight == mLineHeight) {
+            return;
+        }
+        mConfigured = true;
+        mTotal = total;
+        mFirst = first;
+        mVisible = visible;
+        mClickables = clickables;
+        mSelected = selected;
+        mShapeSizes[STATE_NOT_SELECTED] = notSelectedSize;
+        mShapeSizes[STATE_SELECTED] = selectedSize;
+        mShapeSizes[STATE_NOT_CLICKABLE] = notClickableSize;
+        mLineHeight = lineHeight;
+        mRowHeight = computeRowHeight();
+        mWidth = Float.NaN;
+    }
+
+    /**
+     * Compute the positions of the visible steps for the given width, unless they are already
+     * computed for the current configuration and this width.
+     *
+     * @param width is the width available for the visible steps.
+     * @return true if positions were computed, false if the cached ones are still valid.
+     */
+    boolean measure(float width) {
+        if (width == mWidth) {
+            return false;
+        }
+        mWidth = width;
+        mStepWidth = mVisible > 0 ? width / mVisible : 0;
+
+        if (mCenters.length < mVisible) {
+            mCenters = new float[mVisible];
+            mSizes = new float[mVisible];
+            mLeftLineStarts = new float[mVisible];
+            mLeftLineEnds = new float[mVisible];
+            mRightLineStarts = new float[mVisible];
+            mRightLineEnds = new float[mVisible];
+        }
+
+        for (int column = 0; column < mVisible; column++) {
+            int i = mFirst + column;
+            float left = mStepWidth * column;
+            float right = left + mStepWidth;
+            float center = left + mStepWidth / 2f;
+            float half = mShapeSizes[getState(i)] / 2f;
+            mCenters[column] = center;
+            mSizes[column] = half * 2f;
+
+            // The first step has no left line and the last one has no right line. Lines covered by
+            // a shape wider than its step don't exist either.
+            boolean leftLine = i > 0 && center - half > left;
+            mLeftLineStarts[column] = leftLine ? left : Float.NaN;
+            mLeftLineEnds[column] = leftLine ? center - half : Float.NaN;
+            boolean rightLine = i < mTotal - 1 && center + half < right;
+            mRightLineStarts[column] = rightLine ? center + half : Float.NaN;
+            mRightLineEnds[column] = rightLine ? right : Float.NaN;
+        }
+        return true;
+    }
+
+    /**
+     * Get the state of a step from the configured number of clickable steps and selected step.
+     *
+     * @param i is the 0-based index of the step.
+     * @return STATE_SELECTED, STATE_NOT_SELECTED or STATE_NOT_CLICKABLE.
+     */
+    int getState(int i) {
+        if (i >= mClickables) {
+            return STATE_NOT_CLICKABLE;
+        }
+        return i == (mSelected - 1) ? STATE_SELECTED : STATE_NOT_SELECTED;
+    }
+
+    float getStepWidth() {
+        return mStepWidth;
+    }
+
+    /**
+     * Get the height of the row of shapes, which is the height of the biggest shape or line. It
+     * doesn't depend on the width.
+     *
+     * @return the height of the row.
+     */
+    float getRowHeight() {
+        return mRowHeight;
+    }
+
+    float getCenterY() {
+        return mRowHeight / 2f;
+    }
+
+    /**
+     * Find the column of the window of visible steps containing the given x coordinate.
+     *
+     * @param x is the x coordinate, from the left edge of the content.
+     * @return the column, which may be out of the window if x is out of the content.
+     */
+    int getColumnAt(float x) {
+        return mStepWidth > 0 ? (int) Math.floor(x / mStepWidth) : -1;
+    }
+
+    float getStepLeft(int column) {
+        return mStepWidth * column;
+    }
+
+    float getCenterX(int column) {
+        return mCenters[column];
+    }
+
+    float getShapeSize(int column) {
+        return mSizes[column];
+    }
+
+    boolean hasLeftLine(int column) {
+        return !Float.isNaN(mLeftLineStarts[column]);
+    }
+
+    float getLeftLineStart(int column) {
+        return mLeftLineStarts[column];
+    }
+
+    float getLeftLineEnd(int column) {
+        return mLeftLineEnds[column];
+    }
+
+    boolean hasRightLine(int column) {
+        return !Float.isNaN(mRightLineStarts[column]);
+    }
+
+    float getRightLineStart(int column) {
+        return mRightLineStarts[column];
+    }
+
+    float getRightLineEnd(int column) {
+        return mRightLineEnds[column];
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private float computeRowHeight() {
+        // Don't iterate over the steps, as there can be a lot of them: just check which states are
+        // in use. The whole bar is considered, not only the visible window, so the height doesn't
+        // change while scrolling.
+        float height = mLineHeight;
+        if (mSelected >= 1 && mSelected <= mClickables) {
+            height = Math.max(height, mShapeSizes[STATE_SELECTED]);
+        }
+        if (mClickables > 1 || (mClickables == 1 && mSelected != 1)) {
+            height = Math.max(height, mShapeSizes[STATE_NOT_SELECTED]);
+        }
+        if (mTotal > mClickables) {
+            height = Math.max(height, mShapeSizes[STATE_NOT_CLICKABLE]);
+        }
+        return height;
+    }
+}
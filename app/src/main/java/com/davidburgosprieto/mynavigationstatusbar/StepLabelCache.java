@@ -0,0 +1,173 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.graphics.Paint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Labels of the elements of a NavigationStatusBar, prepared and measured once and reused every
+ * time they are drawn.
+ * <p>
+ * Labels are the 1-based element numbers, unless custom labels are set. Number labels and label
+ * widths are only kept for the elements drawn, in slots indexed by the element index modulo the
+ * number of slots. There are at least as many slots as visible elements, so the elements of the
+ * window never evict each other, and the memory used depends on the size of the window, not on the
+ * number of elements. Widths and font metrics are cached per text size, so drawing a label doesn't
+ * allocate or measure text again. Colors don't need to be cached, as they don't change the
+ * measures.
+ */
+class StepLabelCache {
+
+    private static final int MIN_SLOTS = 16;
+
+    /* ************************ */
+    /* Private member variables */
+    /* ************************ */
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final ArrayList<Measures> mMeasures = new ArrayList<>();
+    private String[] mLabels;
+    private int mLabelsHash;
+
+    // Number labels of the elements last drawn, with the 1-based number of the element held by
+    // each slot, or 0 for empty slots.
+    private String[] mNumbers = new String[MIN_SLOTS];
+    private int[] mNumberKeys = new int[MIN_SLOTS];
+
+    /**
+     * Measures of the labels for a given text size. Widths are computed when first needed, and kept
+     * in the same slots as the number labels.
+     */
+    static class Measures {
+        final float textSize, top, ascent, descent, bottom;
+        private final float[] widths;
+        private final int[] keys;
+
+        private Measures(float textSize, Paint.FontMetrics fontMetrics, int slots) {
+            this.textSize = textSize;
+            this.top = fontMetrics.top;
+            this.ascent = fontMetrics.ascent;
+            this.descent = fontMetrics.descent;
+            this.bottom = fontMetrics.bottom;
+            this.widths = new float[slots];
+            this.keys = new int[slots];
+        }
+    }
+
+    /* ************** */
+    /* Public methods */
+    /* ************** */
+
+    /**
+     * Set the number of elements drawn at a time. The slots only grow, so that changing the number
+     * of elements of a recycled bar back and forth doesn't allocate once every size has been seen.
+     *
+     * @param size is the number of visible elements.
+     */
+    void setWindowSize(int size) {
+        if (size <= mNumbers.length) {
+            return;
+        }
+        int slots = Integer.highestOneBit(size - 1) << 1;
+        mNumbers = new String[slots];
+        mNumberKeys = new int[slots];
+        mMeasures.clear();
+    }
+
+    /**
+     * Set the custom labels of the elements. Cached measures are dropped only if the labels
+     * actually change.
+     *
+     * @param labels is the array of custom labels, or null to use element numbers. Elements beyond
+     *               the length of this array are labelled with their numbers.
+     */
+    void setLabels(String[] labels) {
+        if (labels != mLabels) {
+            mLabelsHash = Arrays.hashCode(labels);
+            mLabels = labels;
+            mMeasures.clear();
+        }
+    }
+
+    /**
+     * Drop the cached measures, which are no longer valid after a change of the font scale.
+     */
+    void clearMeasures() {
+        mMeasures.clear();
+    }
+
+    String[] getLabels() {
+        return mLabels;
+    }
+
+    int getLabelsHash() {
+        return mLabelsHash;
+    }
+
+    String getLabel(int i) {
+        return hasCustomLabel(i) ? mLabels[i] : getNumber(i);
+    }
+
+    boolean hasCustomLabel(int i) {
+        return mLabels != null && i < mLabels.length && mLabels[i] != null;
+    }
+
+    /**
+     * Get the cached measures for a text size, computing its font metrics if required.
+     *
+     * @param textSize is the text size in pixels.
+     * @return the measures for the given text size.
+     */
+    Measures getMeasures(float textSize) {
+        for (int i = 0; i < mMeasures.size(); i++) {
+            Measures measures = mMeasures.get(i);
+            if (measures.textSize == textSize) {
+                return measures;
+            }
+        }
+
+        mPaint.setTextSize(textSize);
+        Paint.FontMetrics fontMetrics = new Paint.FontMetrics();
+        mPaint.getFontMetrics(fontMetrics);
+        Measures measures = new Measures(textSize, fontMetrics, mNumbers.length);
+        mMeasures.add(measures);
+        return measures;
+    }
+
+    /**
+     * Get the width of a label, measuring it only the first time it is drawn.
+     *
+     * @param measures is the Measures object for the text size of the label.
+     * @param i        is the index of the element.
+     * @return the width of the label in pixels.
+     */
+    float getWidth(Measures measures, int i) {
+        int slot = i & (measures.keys.length - 1);
+        if (measures.keys[slot] != i + 1) {
+            mPaint.setTextSize(measures.textSize);
+            measures.widths[slot] = mPaint.measureText(getLabel(i));
+            measures.keys[slot] = i + 1;
+        }
+        return measures.widths[slot];
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    /**
+     * Get the number label of an element, creating it only the first time it is drawn.
+     *
+     * @param i is the 0-based index of the element.
+     * @return the 1-based number of the element as a String.
+     */
+    private String getNumber(int i) {
+        int slot = i & (mNumbers.length - 1);
+        if (mNumberKeys[slot] != i + 1) {
+            mNumbers[slot] = Integer.toString(i + 1);
+            mNumberKeys[slot] = i + 1;
+        }
+        return mNumbers[slot];
+    }
+}
@@ -0,0 +1,279 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmarks of the hot paths of NavigationStatusBar, which will execute on the development machine
+ * (host) using Robolectric.
+ * <p>
+ * Every operation is measured for both render modes and several numbers of elements, reporting
+ * time and allocated bytes per operation. Results are written to build/reports/benchmarks and
+ * compared with the recorded baseline. Allocations are deterministic, so a regression beyond
+ * ALLOCATION_TOLERANCE fails the test; times depend on the host, so they are only reported against
+ * the baseline. A missing baseline, or operations missing from it, fail the test too.
+ * <p>
+ * Benchmarks take long, so they are skipped unless unit tests are run with -Pbenchmark. To record a
+ * new baseline, run unit tests with -Pbenchmark.record=true.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NavigationStatusBarBenchmarkTest {
+
+    private static final int[] VIEWS_TOTALS = {3, 8};
+    private static final int[] CANVAS_TOTALS = {3, 8, 100, 10000};
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+    private static final int WIDTH = 1080;
+    private static final double ALLOCATION_TOLERANCE = 1.5;
+    private static final long ALLOCATION_SLACK_BYTES = 1024;
+
+    private Context mContext;
+    private Properties mResults;
+    private List<String> mReport;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mResults = new Properties();
+        mReport = new ArrayList<>();
+    }
+
+    @Test
+    public void benchmarkHotPaths() throws IOException {
+        boolean record = Boolean.parseBoolean(System.getProperty("benchmark.record", "false"));
+        assumeTrue("Benchmarks only run with -Pbenchmark",
+                Boolean.parseBoolean(System.getProperty("benchmark", "false")) || record);
+
+        for (int total : VIEWS_TOTALS) {
+            benchmark("views", total);
+        }
+        for (int total : CANVAS_TOTALS) {
+            benchmark("canvas", total);
+        }
+
+        for (String line : mReport) {
+            System.out.println(line);
+        }
+        writeResults();
+
+        // Compare allocations with the baseline, or record a new baseline.
+        File baselineFile = new File(System.getProperty("benchmark.baseline",
+                "src/test/resources/benchmark-baseline.properties"));
+        if (record) {
+            store(mResults, baselineFile, "NavigationStatusBar benchmark baseline");
+            return;
+        }
+        Properties baseline = load(baselineFile);
+        assertFalse("No benchmark baseline recorded in " + baselineFile +
+                ", record it with -Pbenchmark.record=true", baseline.isEmpty());
+        List<String> regressions = new ArrayList<>();
+        for (String key : new TreeSet<>(mResults.stringPropertyNames())) {
+            String expected = baseline.getProperty(key);
+            if (expected == null) {
+                regressions.add(key + ": missing from the baseline, record it again");
+                continue;
+            }
+            long actualValue = Long.parseLong(mResults.getProperty(key));
+            long expectedValue = Long.parseLong(expected);
+            if (key.endsWith(".ns")) {
+                System.out.println(String.format(Locale.US, "%s: %d ns/op (baseline %d ns/op)", key,
+                        actualValue, expectedValue));
+            } else if (expectedValue >= 0 && actualValue >
+                    expectedValue * ALLOCATION_TOLERANCE + ALLOCATION_SLACK_BYTES) {
+                regressions.add(String.format(Locale.US, "%s: %d bytes/op (baseline %d bytes/op)",
+                        key, actualValue, expectedValue));
+            }
+        }
+        assertTrue("Allocation regressions or operations missing from the baseline:\n" +
+                regressions, regressions.isEmpty());
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private void benchmark(String mode, int total) {
+        final AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.render_mode, mode)
+                .addAttribute(R.attr.total_elements, Integer.toString(total))
+                .addAttribute(R.attr.clickable_elements, Integer.toString(total))
+                .addAttribute(R.attr.selected_element, "1")
+                .build();
+        String prefix = mode + ".total" + total + ".";
+
+        measure(prefix + "construction", new Runnable() {
+            @Override
+            public void run() {
+                new NavigationStatusBar(mContext, attrs);
+            }
+        });
+
+        final NavigationStatusBar bar = new NavigationStatusBar(mContext, attrs);
+        bar.attachListener(new NavigationStatusBar.OnInteractionListener() {
+            @Override
+            public void onInteraction(int buttonIndex) {
+            }
+        });
+        final int widthSpec = View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY);
+        final int heightSpec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+        bar.measure(widthSpec, heightSpec);
+        bar.layout(0, 0, bar.getMeasuredWidth(), bar.getMeasuredHeight());
+
+        measure(prefix + "measureLayout", new Runnable() {
+            @Override
+            public void run() {
+                bar.requestLayout();
+                bar.measure(widthSpec, heightSpec);
+                bar.layout(0, 0, bar.getMeasuredWidth(), bar.getMeasuredHeight());
+            }
+        });
+
+        final Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH,
+                Math.max(bar.getMeasuredHeight(), 1), Bitmap.Config.ARGB_8888));
+        measure(prefix + "draw", new Runnable() {
+            @Override
+            public void run() {
+                bar.draw(canvas);
+            }
+        });
+
+        measure(prefix + "setSelectedElement", new Runnable() {
+            private int mNext = 2;
+
+            @Override
+            public void run() {
+                bar.setSelectedElement(mNext);
+                Robolectric.flushForegroundThreadScheduler();
+                mNext = mNext == 2 ? 1 : 2;
+            }
+        });
+
+        // Touch the centers of the first two elements. Elements have no listeners of their own in
+        // any render mode, so clicks are touch events on the bar. Outer texts are not shown, so
+        // shapes are vertically centered.
+        float elementWidth = (float) WIDTH / Math.min(total, NavigationStatusBar.MAX_ELEMENTS);
+        float y = bar.getHeight() / 2f;
+        long time = SystemClock.uptimeMillis();
+        final MotionEvent[] events = {
+                MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, elementWidth / 2f, y, 0),
+                MotionEvent.obtain(time, time, MotionEvent.ACTION_UP, elementWidth / 2f, y, 0),
+                MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, elementWidth * 1.5f, y, 0),
+                MotionEvent.obtain(time, time, MotionEvent.ACTION_UP, elementWidth * 1.5f, y, 0)
+        };
+        measure(prefix + "click", new Runnable() {
+            private int mNext = 2;
+
+            @Override
+            public void run() {
+                bar.onTouchEvent(events[mNext]);
+                bar.onTouchEvent(events[mNext + 1]);
+                mNext = 2 - mNext;
+            }
+        });
+    }
+
+    /**
+     * Run an operation WARM_UP_ITERATIONS times, then measure the time and allocated bytes of
+     * ITERATIONS runs, and store the per-operation results under the given name.
+     *
+     * @param name      is the name of the operation.
+     * @param operation is the operation to measure.
+     */
+    private void measure(String name, Runnable operation) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            operation.run();
+        }
+
+        long startBytes = getAllocatedBytes();
+        long startNs = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        long ns = (System.nanoTime() - startNs) / ITERATIONS;
+        long endBytes = getAllocatedBytes();
+        long bytes = startBytes < 0 || endBytes < 0 ? -1 : (endBytes - startBytes) / ITERATIONS;
+
+        mResults.setProperty(name + ".ns", Long.toString(ns));
+        mResults.setProperty(name + ".bytes", Long.toString(bytes));
+        mReport.add(String.format(Locale.US, "%-40s %12d ns/op %12d bytes/op", name, ns, bytes));
+    }
+
+    /**
+     * Get the bytes allocated so far by the current thread.
+     *
+     * @return the number of bytes, or -1 if the JVM can't track allocations.
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private void writeResults() throws IOException {
+        File dir = new File("build/reports/benchmarks");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        store(mResults, new File(dir, "navigation-status-bar.properties"),
+                "NavigationStatusBar benchmark results");
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file, String comments) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, comments);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.RelativeLayout;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Construction cost of NavigationStatusBar, which will execute on the development machine (host)
+ * using Robolectric.
+ * <p>
+ * Views of the inflated layout are resolved through the static tables of ids of NavigationStatusBar.
+ * Before, construction resolved them by name through Resources.getIdentifier(). That code no longer
+ * exists, so construction time without the tables is estimated from the measured cost of both kinds
+ * of lookups.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NavigationStatusBarConstructionTest {
+
+    private static final int WARM_UP_ITERATIONS = 50;
+    private static final int ITERATIONS = 500;
+    private static final String[] ID_NAMES = {"element_", "text_", "shape_", "left_line_",
+            "right_line_"};
+    // Tables of NavigationStatusBar, in the same order as ID_NAMES.
+    private static final int[][] ID_TABLES = {NavigationStatusBar.ELEMENT_IDS,
+            NavigationStatusBar.TEXT_IDS, NavigationStatusBar.SHAPE_IDS,
+            NavigationStatusBar.LEFT_LINE_IDS, NavigationStatusBar.RIGHT_LINE_IDS};
+
+    private Context mContext;
+    private AttributeSet mAttrs;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mAttrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.total_elements, "8")
+                .addAttribute(R.attr.clickable_elements, "4")
+                .addAttribute(R.attr.selected_element, "2")
+                .build();
+    }
+
+    @Test
+    public void idTables_matchIdentifiersByName() {
+        Resources res = mContext.getResources();
+        String pkg = mContext.getPackageName();
+        Set<Integer> ids = new HashSet<>();
+
+        for (int type = 0; type < ID_NAMES.length; type++) {
+            assertEquals(NavigationStatusBar.MAX_ELEMENTS, ID_TABLES[type].length);
+            for (int i = 0; i < NavigationStatusBar.MAX_ELEMENTS; i++) {
+                String name = ID_NAMES[type] + (i + 1);
+                assertEquals(name, res.getIdentifier(name, "id", pkg), ID_TABLES[type][i]);
+                assertTrue(name + " is duplicated", ids.add(ID_TABLES[type][i]));
+            }
+        }
+    }
+
+    @Test
+    public void idTables_resolveTheViewsOfEachElement() {
+        NavigationStatusBar bar = new NavigationStatusBar(mContext, mAttrs);
+
+        for (int i = 0; i < NavigationStatusBar.MAX_ELEMENTS; i++) {
+            View element = bar.findViewById(NavigationStatusBar.ELEMENT_IDS[i]);
+            assertTrue(element instanceof RelativeLayout);
+            assertTrue(bar.findViewById(NavigationStatusBar.TEXT_IDS[i]) instanceof TextView);
+
+            // Shapes and lines are children of the wrapper of their own element.
+            View shape = bar.findViewById(NavigationStatusBar.SHAPE_IDS[i]);
+            assertTrue(shape instanceof TextView);
+            assertSame(element, shape.getParent());
+            assertSame(element, bar.findViewById(NavigationStatusBar.LEFT_LINE_IDS[i]).getParent());
+            assertSame(element, bar.findViewById(NavigationStatusBar.RIGHT_LINE_IDS[i]).getParent());
+        }
+    }
+
+    @Test
+    public void construction_reportsCostWithAndWithoutIdentifierLookups() {
+        // Construction as it is now.
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            new NavigationStatusBar(mContext, mAttrs);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            new NavigationStatusBar(mContext, mAttrs);
+        }
+        long constructionNs = (System.nanoTime() - start) / ITERATIONS;
+
+        // View lookups by name, as construction used to do them, and by table, as it does now.
+        NavigationStatusBar bar = new NavigationStatusBar(mContext, mAttrs);
+        int found = 0;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            found += findViewsByName(bar) + findViewsByTable(bar);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            found += findViewsByName(bar);
+        }
+        long byNameNs = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            found += findViewsByTable(bar);
+        }
+        long byTableNs = (System.nanoTime() - start) / ITERATIONS;
+
+        // Construction through getIdentifier() can't be measured anymore, so it is estimated by
+        // replacing the cost of the lookups by table with the cost of the lookups by name.
+        System.out.println(String.format(Locale.US,
+                "NavigationStatusBar construction: %d ns/op measured with id tables, %d ns/op " +
+                        "estimated with getIdentifier() (lookups by name: %d ns/op, by table: " +
+                        "%d ns/op)",
+                constructionNs, constructionNs - byTableNs + byNameNs, byNameNs, byTableNs));
+
+        int lookupsPerBar = ID_NAMES.length * NavigationStatusBar.MAX_ELEMENTS;
+        assertEquals((WARM_UP_ITERATIONS * 2 + ITERATIONS * 2) * lookupsPerBar, found);
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private int findViewsByName(NavigationStatusBar bar) {
+        Resources res = bar.getResources();
+        String pkg = bar.getContext().getPackageName();
+        int found = 0;
+        for (String name : ID_NAMES) {
+            for (int i = 0; i < NavigationStatusBar.MAX_ELEMENTS; i++) {
+                if (bar.findViewById(res.getIdentifier(name + (i + 1), "id", pkg)) != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private int findViewsByTable(NavigationStatusBar bar) {
+        int found = 0;
+        for (int[] ids : ID_TABLES) {
+            for (int id : ids) {
+                if (bar.findViewById(id) != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,150 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.content.Context;
+import android.util.AttributeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Order and budget of the updates applied by NavigationStatusBarScheduler, which will execute on
+ * the development machine (host) using Robolectric.
+ * <p>
+ * The main looper is paused, so that frame callbacks never run by themselves, and frames are run
+ * directly through runFrame(), one at a time. With a zero budget the budget is spent by the first
+ * bar of every frame, so exactly one bar is updated per frame.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NavigationStatusBarSchedulerTest {
+
+    private static final int BARS = 4;
+
+    private Context mContext;
+    private AttributeSet mAttrs;
+    private List<Integer> mApplied;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mAttrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.total_elements, "8")
+                .addAttribute(R.attr.clickable_elements, "8")
+                .addAttribute(R.attr.selected_element, "1")
+                .build();
+        mApplied = new ArrayList<>();
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @Test
+    public void zeroBudget_updatesOneBarPerFrameInAttachOrder() {
+        NavigationStatusBarScheduler scheduler = new NavigationStatusBarScheduler(0);
+        RecordingBar[] bars = createBars(scheduler);
+
+        // Scheduled in reverse order, applied in attach order.
+        for (int i = BARS - 1; i >= 0; i--) {
+            select(bars[i], 2);
+        }
+        for (int frame = 1; frame <= BARS; frame++) {
+            scheduler.runFrame();
+            assertEquals(frame, mApplied.size());
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3), mApplied);
+
+        scheduler.runFrame();
+        assertEquals("Nothing is left to update", BARS, mApplied.size());
+    }
+
+    @Test
+    public void zeroBudget_updatesLeftoversFirstInTheNextFrame() {
+        NavigationStatusBarScheduler scheduler = new NavigationStatusBarScheduler(0);
+        RecordingBar[] bars = createBars(scheduler);
+
+        select(bars[1], 2);
+        select(bars[2], 2);
+        select(bars[3], 2);
+        scheduler.runFrame();
+        assertEquals(Arrays.asList(1), mApplied);
+
+        // Bar 0 was attached first, but bars 2 and 3 were left over from the previous frame.
+        select(bars[0], 2);
+        scheduler.runFrame();
+        scheduler.runFrame();
+        scheduler.runFrame();
+        assertEquals(Arrays.asList(1, 2, 3, 0), mApplied);
+    }
+
+    @Test
+    public void zeroBudget_mergesChangesOfLeftoverBars() {
+        NavigationStatusBarScheduler scheduler = new NavigationStatusBarScheduler(0);
+        RecordingBar[] bars = createBars(scheduler);
+
+        select(bars[0], 2);
+        select(bars[1], 2);
+        scheduler.runFrame();
+
+        // Bar 1 is still waiting for its update, so new changes are merged into it.
+        select(bars[1], 3);
+        select(bars[1], 4);
+        scheduler.runFrame();
+        scheduler.runFrame();
+        assertEquals(Arrays.asList(0, 1), mApplied);
+    }
+
+    @Test
+    public void unlimitedBudget_updatesEveryBarInOneFrame() {
+        NavigationStatusBarScheduler scheduler = new NavigationStatusBarScheduler(Long.MAX_VALUE);
+        RecordingBar[] bars = createBars(scheduler);
+
+        for (int i = BARS - 1; i >= 0; i--) {
+            select(bars[i], 2);
+        }
+        scheduler.runFrame();
+        assertEquals(Arrays.asList(0, 1, 2, 3), mApplied);
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private RecordingBar[] createBars(NavigationStatusBarScheduler scheduler) {
+        RecordingBar[] bars = new RecordingBar[BARS];
+        for (int i = 0; i < BARS; i++) {
+            bars[i] = new RecordingBar(i);
+            bars[i].setScheduler(scheduler);
+        }
+        return bars;
+    }
+
+    private static void select(NavigationStatusBar bar, int selected) {
+        bar.edit().setSelectedElement(selected).apply();
+    }
+
+    /**
+     * Bar recording the order its scheduled changes are applied in.
+     */
+    private class RecordingBar extends NavigationStatusBar {
+        private final int mIndex;
+
+        RecordingBar(int index) {
+            super(mContext, mAttrs);
+            mIndex = index;
+        }
+
+        @Override
+        void applyScheduledChanges() {
+            mApplied.add(mIndex);
+            super.applyScheduledChanges();
+        }
+    }
+}
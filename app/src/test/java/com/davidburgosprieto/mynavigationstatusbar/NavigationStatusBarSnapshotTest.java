@@ -0,0 +1,136 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.ColorDrawable;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drawing of idle bars from snapshots, which will execute on the development machine (host) using
+ * Robolectric.
+ * <p>
+ * Bars are drawn through a parent, as the framework does, so that views-mode bars without a
+ * background skip draw() and only get dispatchDraw().
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NavigationStatusBarSnapshotTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 200;
+
+    private Context mContext;
+    private Canvas mCanvas;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mCanvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+        // Snapshots are shared by every bar, so start every test from an empty cache.
+        SnapshotCache.setMaxBytes(1);
+        SnapshotCache.setMaxBytes(SnapshotCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Test
+    public void viewsMode_secondIdleDrawComesFromTheSnapshot() {
+        NavigationStatusBar bar = new NavigationStatusBar(mContext, buildAttrs("views"));
+        CountingDrawable element = new CountingDrawable();
+        bar.findViewById(NavigationStatusBar.ELEMENT_IDS[0]).setBackground(element);
+        ViewGroup parent = layOut(bar);
+        assertTrue(bar.willNotDraw());
+
+        parent.draw(mCanvas);
+        assertEquals("The first draw is not idle", 0, SnapshotCache.getSize());
+        assertEquals(1, element.draws);
+
+        parent.draw(mCanvas);
+        assertEquals(bar.getWidth() * bar.getHeight() * 4, SnapshotCache.getSize());
+        assertEquals("The snapshot is rendered from the child views", 2, element.draws);
+
+        parent.draw(mCanvas);
+        assertEquals(bar.getWidth() * bar.getHeight() * 4, SnapshotCache.getSize());
+        assertEquals("The cached snapshot replaces the child views", 2, element.draws);
+    }
+
+    @Test
+    public void canvasMode_secondIdleDrawComesFromTheSnapshot() {
+        NavigationStatusBar bar = new NavigationStatusBar(mContext, buildAttrs("canvas"));
+        bar.setMetricsEnabled(true);
+        ViewGroup parent = layOut(bar);
+
+        parent.draw(mCanvas);
+        assertEquals("The first draw is not idle", 0, SnapshotCache.getSize());
+        assertEquals(1, bar.getMetrics().draws);
+
+        parent.draw(mCanvas);
+        assertEquals(bar.getWidth() * bar.getHeight() * 4, SnapshotCache.getSize());
+        assertEquals("The snapshot is rendered through onDraw()", 2, bar.getMetrics().draws);
+
+        parent.draw(mCanvas);
+        assertEquals(bar.getWidth() * bar.getHeight() * 4, SnapshotCache.getSize());
+        assertEquals("The cached snapshot replaces onDraw()", 2, bar.getMetrics().draws);
+    }
+
+    @Test
+    public void stateChange_drawsAsUsualAgain() {
+        NavigationStatusBar bar = new NavigationStatusBar(mContext, buildAttrs("canvas"));
+        bar.setMetricsEnabled(true);
+        ViewGroup parent = layOut(bar);
+        parent.draw(mCanvas);
+        parent.draw(mCanvas);
+
+        bar.bind(new NavigationStatusBarState(8, 4, 3));
+        parent.draw(mCanvas);
+        assertEquals("A new state is not idle", 3, bar.getMetrics().draws);
+    }
+
+    /* *************** */
+    /* Private methods */
+    /* *************** */
+
+    private AttributeSet buildAttrs(String renderMode) {
+        return Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.total_elements, "8")
+                .addAttribute(R.attr.clickable_elements, "4")
+                .addAttribute(R.attr.selected_element, "2")
+                .addAttribute(R.attr.render_mode, renderMode)
+                .build();
+    }
+
+    private ViewGroup layOut(NavigationStatusBar bar) {
+        FrameLayout parent = new FrameLayout(mContext);
+        parent.addView(bar, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT));
+        parent.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        parent.layout(0, 0, WIDTH, HEIGHT);
+        bar.setSnapshotsEnabled(true);
+        return parent;
+    }
+
+    /**
+     * Background counting the times it is drawn, to tell whether a child view was drawn.
+     */
+    private static class CountingDrawable extends ColorDrawable {
+        int draws;
+
+        @Override
+        public void draw(Canvas canvas) {
+            draws++;
+            super.draw(canvas);
+        }
+    }
+}
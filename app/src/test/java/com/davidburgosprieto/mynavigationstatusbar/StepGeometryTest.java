@@ -0,0 +1,101 @@
+package com.davidburgosprieto.mynavigationstatusbar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Geometry of the elements of a NavigationStatusBar, which will execute on the development machine
+ * (host) as a plain JVM test, with no Android classes.
+ */
+public class StepGeometryTest {
+
+    private static final float DELTA = 1e-4f;
+
+    private StepGeometry mGeometry;
+
+    @Before
+    public void setUp() {
+        mGeometry = new StepGeometry();
+        // 4 elements, 3 of them clickable, the second one selected.
+        mGeometry.setConfiguration(4, 0, 4, 3, 2, 20, 40, 10, 4);
+    }
+
+    @Test
+    public void measure_placesShapesAtTheCenterOfEqualSteps() {
+        mGeometry.measure(400);
+
+        assertEquals(100, mGeometry.getStepWidth(), DELTA);
+        for (int column = 0; column < 4; column++) {
+            assertEquals(50 + 100 * column, mGeometry.getCenterX(column), DELTA);
+        }
+        assertEquals(20, mGeometry.getShapeSize(0), DELTA);
+        assertEquals(40, mGeometry.getShapeSize(1), DELTA);
+        assertEquals(20, mGeometry.getShapeSize(2), DELTA);
+        assertEquals(10, mGeometry.getShapeSize(3), DELTA);
+        assertEquals(40, mGeometry.getRowHeight(), DELTA);
+        assertEquals(20, mGeometry.getCenterY(), DELTA);
+    }
+
+    @Test
+    public void measure_connectsShapesWithLines() {
+        mGeometry.measure(400);
+
+        // The first element has no left line and the last one has no right line.
+        assertFalse(mGeometry.hasLeftLine(0));
+        assertTrue(mGeometry.hasRightLine(0));
+        assertEquals(60, mGeometry.getRightLineStart(0), DELTA);
+        assertEquals(100, mGeometry.getRightLineEnd(0), DELTA);
+
+        assertTrue(mGeometry.hasLeftLine(1));
+        assertEquals(100, mGeometry.getLeftLineStart(1), DELTA);
+        assertEquals(130, mGeometry.getLeftLineEnd(1), DELTA);
+        assertEquals(170, mGeometry.getRightLineStart(1), DELTA);
+
+        assertTrue(mGeometry.hasLeftLine(3));
+        assertEquals(345, mGeometry.getLeftLineEnd(3), DELTA);
+        assertFalse(mGeometry.hasRightLine(3));
+    }
+
+    @Test
+    public void measure_omitsLinesCoveredByWideShapes() {
+        mGeometry.setConfiguration(3, 0, 3, 3, 2, 20, 150, 10, 4);
+        mGeometry.measure(300);
+
+        assertTrue(mGeometry.hasRightLine(0));
+        assertFalse(mGeometry.hasLeftLine(1));
+        assertFalse(mGeometry.hasRightLine(1));
+        assertTrue(mGeometry.hasLeftLine(2));
+    }
+
+    @Test
+    public void measure_onlyComputesTheWindowOfVisibleElements() {
+        // 10000 elements, 5 visible starting at the element 5000.
+        mGeometry.setConfiguration(10000, 4999, 5, 10000, 5001, 20, 40, 10, 4);
+        mGeometry.measure(500);
+
+        assertEquals(150, mGeometry.getCenterX(1), DELTA);
+        assertEquals(StepGeometry.STATE_SELECTED, mGeometry.getState(5000));
+        assertEquals(40, mGeometry.getShapeSize(1), DELTA);
+        assertTrue(mGeometry.hasLeftLine(0));
+        assertTrue(mGeometry.hasRightLine(4));
+        assertEquals(2, mGeometry.getColumnAt(250));
+        assertEquals(-1, mGeometry.getColumnAt(-1));
+    }
+
+    @Test
+    public void measure_isCachedByWidthAndConfiguration() {
+        assertTrue(mGeometry.measure(400));
+        assertFalse(mGeometry.measure(400));
+
+        // A new width or a new configuration compute positions again.
+        assertTrue(mGeometry.measure(800));
+        assertFalse(mGeometry.measure(800));
+        mGeometry.setConfiguration(4, 0, 4, 3, 2, 20, 40, 10, 4);
+        assertFalse(mGeometry.measure(800));
+        mGeometry.setConfiguration(4, 0, 4, 3, 3, 20, 40, 10, 4);
+        assertTrue(mGeometry.measure(800));
+        assertEquals(40, mGeometry.getShapeSize(2), DELTA);
+    }
+}